@@ -0,0 +1,239 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.N_OFFSET;
+import static nl.basjes.statistics.Counter.getLong;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A keyed set of counters that keeps track of which counters changed since the last checkpoint.
+ * A checkpoint only emits the counters that changed so the amount of data that is shipped
+ * downstream scales with the churn instead of with the number of keys.
+ * 
+ * A consumer rebuilds the state by applying a base snapshot followed by all deltas
+ * (see {@link #apply(Map, Object, byte[], DeltaMode)}).
+ * @param <K> The type of the key
+ */
+public class CheckpointedCounterMap<K> {
+
+    /**
+     * What is emitted for each counter that changed since the last checkpoint.
+     */
+    public enum DeltaMode {
+        /** The full current value of the counter; the consumer replaces what it has. */
+        FULL_VALUES,
+        /** Only what was added since the last checkpoint; the consumer merges this using {@link Counter#increment(byte[])}. */
+        INCREMENTS
+    }
+
+    private final DeltaMode deltaMode;
+
+    private final Map<K, Integer> slots      = new HashMap<K, Integer>();
+    private final List<K>         keys       = new ArrayList<K>();
+    private final List<Counter>   counters   = new ArrayList<Counter>();
+    private final List<Counter>   increments = new ArrayList<Counter>(); // Only used in INCREMENTS mode
+    private final BitSet          dirty      = new BitSet();
+
+    // ------------------------------------------
+
+    public CheckpointedCounterMap(final DeltaMode deltaMode) {
+        this.deltaMode = deltaMode;
+    }
+
+    // ------------------------------------------
+
+    public DeltaMode getDeltaMode() {
+        return deltaMode;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the current counter for the specified key.
+     * The returned counter must not be modified as that would bypass the change tracking.
+     * @param key The key of the counter
+     * @return The counter or null if the key is unknown
+     */
+    public Counter get(final K key) {
+        final Integer slot = slots.get(key);
+        if (slot == null) {
+            return null;
+        }
+        return counters.get(slot);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the number of keys
+     * @return
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the number of keys that changed since the last checkpoint
+     * @return
+     */
+    public int getDirtyCount() {
+        return dirty.cardinality();
+    }
+
+    // ------------------------------------------
+
+    public void increment(final K key, final double newValue) {
+        final int slot = slot(key);
+        counters.get(slot).increment(newValue);
+        if (deltaMode == DeltaMode.INCREMENTS) {
+            increments.get(slot).increment(newValue);
+        }
+        dirty.set(slot);
+    }
+
+    // ------------------------------------------
+
+    public void increment(final K key, final Counter counter) {
+        if (counter == null || counter.getN() == 0) {
+            return;
+        }
+        final int slot = slot(key);
+        counters.get(slot).increment(counter);
+        if (deltaMode == DeltaMode.INCREMENTS) {
+            increments.get(slot).increment(counter);
+        }
+        dirty.set(slot);
+    }
+
+    // ------------------------------------------
+
+    public void increment(final K key, final byte[] bytes) {
+        if (bytes == null || getLong(bytes, N_OFFSET) == 0) {
+            return;
+        }
+        final int slot = slot(key);
+        counters.get(slot).increment(bytes);
+        if (deltaMode == DeltaMode.INCREMENTS) {
+            increments.get(slot).increment(bytes);
+        }
+        dirty.set(slot);
+    }
+
+    // ------------------------------------------
+
+    private int slot(final K key) {
+        final Integer slot = slots.get(key);
+        if (slot != null) {
+            return slot;
+        }
+        final int newSlot = keys.size();
+        slots.put(key, newSlot);
+        keys.add(key);
+        counters.add(new Counter());
+        if (deltaMode == DeltaMode.INCREMENTS) {
+            increments.add(new Counter());
+        }
+        return newSlot;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Emit the full value of ALL counters and start a new checkpoint.
+     * This is the base snapshot the deltas of subsequent checkpoints are applied to.
+     * @param sink Where the counters are sent to
+     * @return The number of emitted counters
+     * @throws IOException
+     */
+    public int snapshot(final KeyedCounterSink<K> sink) throws IOException {
+        final int size = keys.size();
+        for (int slot = 0; slot < size; slot++) {
+            sink.accept(keys.get(slot), counters.get(slot).toBytes());
+        }
+        resetCheckpoint();
+        return size;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Emit only the counters that changed since the last checkpoint (or snapshot) and start a new checkpoint.
+     * Depending on the {@link DeltaMode} either the full value or only the increment is emitted.
+     * @param sink Where the counters are sent to
+     * @return The number of emitted counters
+     * @throws IOException
+     */
+    public int checkpoint(final KeyedCounterSink<K> sink) throws IOException {
+        int emitted = 0;
+        for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+            if (deltaMode == DeltaMode.INCREMENTS) {
+                sink.accept(keys.get(slot), increments.get(slot).toBytes());
+            } else {
+                sink.accept(keys.get(slot), counters.get(slot).toBytes());
+            }
+            emitted++;
+        }
+        resetCheckpoint();
+        return emitted;
+    }
+
+    // ------------------------------------------
+
+    private void resetCheckpoint() {
+        if (deltaMode == DeltaMode.INCREMENTS) {
+            for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+                increments.get(slot).wipe();
+            }
+        }
+        dirty.clear();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Apply a single emitted counter to the state of a consumer.
+     * A base snapshot must always be applied with {@link DeltaMode#FULL_VALUES}.
+     * @param state     The state of the consumer
+     * @param key       The key of the counter
+     * @param bytes     The emitted counter as represented in bytes
+     * @param deltaMode The mode of the producer that emitted the counter
+     */
+    public static <K> void apply(final Map<K, Counter> state, final K key, final byte[] bytes, final DeltaMode deltaMode) {
+        final Counter counter = state.get(key);
+        if (counter == null) {
+            state.put(key, new Counter(bytes));
+            return;
+        }
+        if (deltaMode == DeltaMode.INCREMENTS) {
+            counter.increment(bytes);
+        } else {
+            counter.setBytes(bytes);
+        }
+    }
+
+    // ------------------------------------------
+
+}
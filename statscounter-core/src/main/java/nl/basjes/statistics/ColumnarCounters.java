@@ -0,0 +1,234 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.Counter.M2_OFFSET;
+import static nl.basjes.statistics.Counter.MAX_OFFSET;
+import static nl.basjes.statistics.Counter.MIN_OFFSET;
+import static nl.basjes.statistics.Counter.N_OFFSET;
+import static nl.basjes.statistics.Counter.SUM_OFFSET;
+import static nl.basjes.statistics.Counter.putDouble;
+import static nl.basjes.statistics.Counter.putLong;
+
+import java.util.Arrays;
+
+/**
+ * The statistics of a dense range of keys (0 .. keyCount-1, e.g. a dictionary encoded column) stored as
+ * a struct of arrays, updated in bulk from a column of keys and a column of values.
+ * 
+ * A batch is first partitioned by key (a counting sort into a reused buffer, so no two rows ever update
+ * the same slot), then the values of each key are reduced in tight loops over contiguous memory
+ * and finally that partial result is merged into the state of the key with the same parallel algorithm
+ * as {@link Counter} uses.
+ * This replaces one {@link Counter#increment(double)} call per row with a few array passes per batch.
+ */
+public class ColumnarCounters {
+
+    private final int keyCount;
+
+    // The state per key
+    private final long[]   n;   // Count of values
+    private final double[] m2;  // Second moment of values that have been added
+    private final double[] sum; // Total sum
+    private final double[] min; // Lowest value
+    private final double[] max; // Highest value
+
+    // Reused buffers for partitioning a batch
+    private final int[] batchCount; // Number of rows per key in the current batch
+    private final int[] batchStart; // Where the rows of a key start in partitioned
+    private final int[] touched;    // The keys that occur in the current batch
+    private double[]    partitioned = new double[0];
+
+    // ------------------------------------------
+
+    public ColumnarCounters(final int keyCount) {
+        this.keyCount = keyCount;
+        n          = new long  [keyCount];
+        m2         = new double[keyCount];
+        sum        = new double[keyCount];
+        min        = new double[keyCount];
+        max        = new double[keyCount];
+        batchCount = new int   [keyCount];
+        batchStart = new int   [keyCount];
+        touched    = new int   [keyCount];
+        wipe();
+    }
+
+    // ------------------------------------------
+
+    public void wipe() {
+        Arrays.fill(n,   0);
+        Arrays.fill(m2,  Double.NaN);
+        Arrays.fill(sum, Double.NaN);
+        Arrays.fill(min, Double.NaN);
+        Arrays.fill(max, Double.NaN);
+    }
+
+    // ------------------------------------------
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Add the values[i] to the statistics of key keys[i] for all i &lt; len.
+     * @param keys   The key column (all values must be in the range 0 .. keyCount-1)
+     * @param values The value column
+     * @param len    The number of rows to use from the columns
+     * @throws IllegalArgumentException if a key is out of range (nothing of the batch is applied then)
+     */
+    public void update(final int[] keys, final double[] values, final int len) {
+        if (len < 0 || len > keys.length || len > values.length) {
+            throw new IllegalArgumentException("The columns do not have " + len + " rows");
+        }
+
+        // Validate all keys before any state is changed
+        for (int row = 0; row < len; row++) {
+            final int key = keys[row];
+            if (key < 0 || key >= keyCount) {
+                throw new IllegalArgumentException("The key " + key + " at row " + row +
+                                                   " is not in the range [0, " + keyCount + ")");
+            }
+        }
+        if (partitioned.length < len) {
+            partitioned = new double[len];
+        }
+
+        // Count the rows per key and remember which keys occur
+        int touchedCount = 0;
+        for (int row = 0; row < len; row++) {
+            final int key = keys[row];
+            if (batchCount[key]++ == 0) {
+                touched[touchedCount++] = key;
+            }
+        }
+
+        // Give each key its own contiguous region
+        int start = 0;
+        for (int t = 0; t < touchedCount; t++) {
+            final int key = touched[t];
+            batchStart[key] = start;
+            start += batchCount[key];
+        }
+
+        // Partition the values; every row has its own slot so there are no conflicts
+        for (int row = 0; row < len; row++) {
+            partitioned[batchStart[keys[row]]++] = values[row];
+        }
+
+        // Reduce the region of each key and merge it into the state
+        for (int t = 0; t < touchedCount; t++) {
+            final int key   = touched[t];
+            final int count = batchCount[key];
+            final int to    = batchStart[key];
+            final int from  = to - count;
+
+            double bSum = 0;
+            double bMin = partitioned[from];
+            double bMax = partitioned[from];
+            for (int i = from; i < to; i++) {
+                final double value = partitioned[i];
+                bSum += value;
+                bMin = Math.min(bMin, value);
+                bMax = Math.max(bMax, value);
+            }
+            final double bMean = bSum / count;
+            double bM2 = 0;
+            for (int i = from; i < to; i++) {
+                final double diff = partitioned[i] - bMean;
+                bM2 += diff * diff;
+            }
+
+            merge(key, count, bM2, bSum, bMin, bMax);
+            batchCount[key] = 0;
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The parallel algorithm of {@link Counter} applied to the state of a single key.
+     */
+    private void merge(final int key, final long c_n, final double c_m2, final double c_sum, final double c_min, final double c_max) {
+        final long oldN = n[key];
+        if (oldN == 0) {
+            n  [key] = c_n;
+            m2 [key] = c_m2;
+            sum[key] = c_sum;
+            min[key] = c_min;
+            max[key] = c_max;
+            return;
+        }
+
+        min[key] = Math.min(min[key], c_min);
+        max[key] = Math.max(max[key], c_max);
+
+        final double meanDiff = (c_sum/c_n) - (sum[key]/oldN);
+        final long   newN     = oldN + c_n;
+
+        sum[key] += c_sum;
+        n  [key]  = newN;
+        m2 [key]  = m2[key] + c_m2 + meanDiff * meanDiff * oldN * c_n / newN;
+    }
+
+    // ------------------------------------------
+
+    public long getN(final int key) {
+        return n[key];
+    }
+
+    // ------------------------------------------
+
+    public double getSum(final int key) {
+        return sum[key];
+    }
+
+    // ------------------------------------------
+
+    public double getMin(final int key) {
+        return min[key];
+    }
+
+    // ------------------------------------------
+
+    public double getMax(final int key) {
+        return max[key];
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the statistics of a single key as a {@link Counter}.
+     * @param key The key
+     * @return A new Counter
+     */
+    public Counter toCounter(final int key) {
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        putLong  (  n[key], bytes, N_OFFSET  ); // Count of values
+        putDouble( m2[key], bytes, M2_OFFSET ); // Second moment of values that have been added
+        putDouble(sum[key], bytes, SUM_OFFSET); // Total sum
+        putDouble(min[key], bytes, MIN_OFFSET); // Lowest value
+        putDouble(max[key], bytes, MAX_OFFSET); // Highest value
+        return new Counter(bytes);
+    }
+
+    // ------------------------------------------
+
+}
@@ -19,8 +19,7 @@ package nl.basjes.statistics;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-
-import org.apache.hadoop.io.Writable;
+import java.io.Serializable;
 
 /**
  * An implementation of a counter that allows adding values and returns some summary statistics similar
@@ -29,8 +28,12 @@ import org.apache.hadoop.io.Writable;
  * 1) It allows serializing the underlying data into only 40 bytes (fixed size!)
  * 2) Actually implements the Associative and Commutativity properties of the underlying operations.
  * Thus efficiently allows for doing distributed aggregation of petabyte size datasets.
+ * For use as a Hadoop Writable see CounterWritable in the statscounter-hadoop module.
+ * It is also java.io.Serializable so it can be used as is in (i.e. Spark and Flink) closures.
  */
-public class Counter implements Writable {
+public class Counter implements StatisticsCounter, DataSerializable, Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private long   n;   // Count of values
     private double m2;  // Second moment of values that have been added
@@ -88,14 +91,20 @@ public class Counter implements Writable {
 
     // ------------------------------------------
 
-    private static final int LONG_BYTES         = Long.SIZE / 8;
-    private static final int DOUBLE_BYTES       = Double.SIZE / 8;
-    private static final int COUNTER_BYTES_SIZE = LONG_BYTES + 4 * DOUBLE_BYTES;
-    private static final int N_OFFSET           = 0;
-    private static final int M2_OFFSET          = LONG_BYTES;
-    private static final int SUM_OFFSET         = LONG_BYTES + DOUBLE_BYTES * 1;
-    private static final int MIN_OFFSET         = LONG_BYTES + DOUBLE_BYTES * 2;
-    private static final int MAX_OFFSET         = LONG_BYTES + DOUBLE_BYTES * 3;
+    static final int LONG_BYTES         = Long.SIZE / 8;
+    static final int DOUBLE_BYTES       = Double.SIZE / 8;
+
+    /**
+     * The (fixed) number of bytes of a serialized counter.
+     */
+    public static final int COUNTER_BYTES_SIZE = LONG_BYTES + 4 * DOUBLE_BYTES;
+
+    // The layout of a serialized counter (also used by the other counter implementations in this package)
+    static final int N_OFFSET           = 0;
+    static final int M2_OFFSET          = LONG_BYTES;
+    static final int SUM_OFFSET         = LONG_BYTES + DOUBLE_BYTES * 1;
+    static final int MIN_OFFSET         = LONG_BYTES + DOUBLE_BYTES * 2;
+    static final int MAX_OFFSET         = LONG_BYTES + DOUBLE_BYTES * 3;
 
     public void setBytes(final byte[] bytes) {
         wipe();
@@ -110,28 +119,51 @@ public class Counter implements Writable {
      * @param bytes The counter that must be included in this counter as represented in bytes
      */
     public void increment(final byte[] bytes) {
+        increment(bytes, 0);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Creates the combined statistics by merging the current counter with
+     * the specified counter that is given in the serialized form somewhere inside a larger byte array.
+     * @param bytes  The bytes that contain the counter that must be included in this counter
+     * @param offset Where in bytes the serialized counter starts
+     */
+    public void increment(final byte[] bytes, final int offset) {
         increment(
-            getLong  (bytes, N_OFFSET  ),  // Count of values
-            getDouble(bytes, M2_OFFSET ),  // Second moment of values that have been added
-            getDouble(bytes, SUM_OFFSET),  // Total sum
-            getDouble(bytes, MIN_OFFSET),  // Lowest value
-            getDouble(bytes, MAX_OFFSET)); // Highest value
+            getLong  (bytes, offset + N_OFFSET  ),  // Count of values
+            getDouble(bytes, offset + M2_OFFSET ),  // Second moment of values that have been added
+            getDouble(bytes, offset + SUM_OFFSET),  // Total sum
+            getDouble(bytes, offset + MIN_OFFSET),  // Lowest value
+            getDouble(bytes, offset + MAX_OFFSET)); // Highest value
     }
 
     // ------------------------------------------
 
     public byte[] toBytes() {
         final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
-        putLong  (  n, bytes, N_OFFSET  ); // Count of values
-        putDouble( m2, bytes, M2_OFFSET ); // Second moment of values that have been added
-        putDouble(sum, bytes, SUM_OFFSET); // Total sum
-        putDouble(min, bytes, MIN_OFFSET); // Lowest value
-        putDouble(max, bytes, MAX_OFFSET); // Highest value
+        toBytes(bytes, 0);
         return bytes;
     }
 
     // ------------------------------------------
 
+    /**
+     * Serialize this counter into an existing byte array.
+     * @param bytes  Where the counter must be written to
+     * @param offset Where in bytes the serialized counter must start
+     */
+    public void toBytes(final byte[] bytes, final int offset) {
+        putLong  (  n, bytes, offset + N_OFFSET  ); // Count of values
+        putDouble( m2, bytes, offset + M2_OFFSET ); // Second moment of values that have been added
+        putDouble(sum, bytes, offset + SUM_OFFSET); // Total sum
+        putDouble(min, bytes, offset + MIN_OFFSET); // Lowest value
+        putDouble(max, bytes, offset + MAX_OFFSET); // Highest value
+    }
+
+    // ------------------------------------------
+
     /**
      * Creates the combined statistics by merging the current counter with the specified counter.
      * @param counter The counter that must be included in this counter
@@ -305,11 +337,11 @@ public class Counter implements Writable {
 
     // ------------------------------------------
 
-    // Some helper functions to convert the values to and from byte[]
+    // Some helper functions to convert the values to and from byte[] (also used by the other counters in this package)
     // These were copied from java.io.DataInputStream and java.io.DataOutputStream
     // This was done because instantiating these classes again and again is a massive needless overhead.
 
-    private long getLong (final byte[] bytes, final int offset) {
+    static long getLong (final byte[] bytes, final int offset) {
     return (((long)(bytes[offset+0] & 255) << 56) +
             ((long)(bytes[offset+1] & 255) << 48) +
             ((long)(bytes[offset+2] & 255) << 40) +
@@ -320,11 +352,11 @@ public class Counter implements Writable {
             ((long)(bytes[offset+7] & 255) <<  0));
     }
 
-    private double getDouble (final byte[] bytes, final int offset) {
+    static double getDouble (final byte[] bytes, final int offset) {
         return Double.longBitsToDouble(getLong(bytes, offset));
     }
 
-    private void putLong (final long value, final byte[] bytes, final int offset) {
+    static void putLong (final long value, final byte[] bytes, final int offset) {
         bytes[offset+0] = (byte)(value >>> 56);
         bytes[offset+1] = (byte)(value >>> 48);
         bytes[offset+2] = (byte)(value >>> 40);
@@ -335,7 +367,7 @@ public class Counter implements Writable {
         bytes[offset+7] = (byte)(value >>>  0);
     }
 
-   private void putDouble(final double value, final byte[] bytes, final int offset) {
+   static void putDouble(final double value, final byte[] bytes, final int offset) {
        putLong(Double.doubleToLongBits(value), bytes, offset);
    }
 
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.Counter.N_OFFSET;
+import static nl.basjes.statistics.Counter.getLong;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An index over a time ordered sequence of buckets (i.e. one Counter per minute) that can produce the
+ * merged Counter of any range of buckets with O(log n) merges instead of merging every bucket in the range.
+ * 
+ * It is a segment tree (bottom up, the root is node 1, the children of node i are 2i and 2i+1 and bucket b
+ * is node capacity + b) in which every node is the merge of its children. All nodes are stored in the 40 byte
+ * serialized form in a single byte array, which is also exactly what is persisted.
+ * Appending a bucket updates the O(log n) nodes above it; when the capacity is full it is doubled.
+ */
+public class CounterRangeIndex implements DataSerializable {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** The tree of 2 * capacity nodes must fit in a single byte array. */
+    public static final int MAX_CAPACITY     = 1 << 24;
+
+    private int     capacity;   // Number of leaves (a power of 2)
+    private int     size;       // Number of buckets
+    private byte[]  nodes;      // 2 * capacity serialized counters (node 0 is not used)
+    private final Counter merged = new Counter(); // Scratch counter to combine children
+
+    // ------------------------------------------
+
+    public CounterRangeIndex() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param initialCapacity The expected number of buckets
+     */
+    public CounterRangeIndex(final int initialCapacity) {
+        if (initialCapacity < 1 || initialCapacity > MAX_CAPACITY) {
+            throw new IllegalArgumentException("The initialCapacity must be in the range [1, " + MAX_CAPACITY +
+                                               "] (was " + initialCapacity + ")");
+        }
+        capacity = Integer.highestOneBit(initialCapacity);
+        if (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+        size  = 0;
+        nodes = new byte[2 * capacity * COUNTER_BYTES_SIZE];
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of buckets
+     */
+    public int size() {
+        return size;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Add a new bucket after the last one.
+     * @return The index of the new bucket
+     */
+    public int append(final Counter bucket) {
+        if (size == capacity) {
+            grow();
+        }
+        set(size++, bucket);
+        return size - 1;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Replace an existing bucket (i.e. because late data arrived).
+     */
+    public void set(final int index, final Counter bucket) {
+        checkIndex(index);
+        int node = capacity + index;
+        if (bucket == null) {
+            merged.wipe();
+            merged.toBytes(nodes, node * COUNTER_BYTES_SIZE);
+        } else {
+            bucket.toBytes(nodes, node * COUNTER_BYTES_SIZE);
+        }
+        while (node > 1) {
+            node >>>= 1;
+            updateNode(node);
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge a counter into an existing bucket.
+     */
+    public void increment(final int index, final Counter counter) {
+        final Counter bucket = getBucket(index);
+        bucket.increment(counter);
+        set(index, bucket);
+    }
+
+    // ------------------------------------------
+
+    public Counter getBucket(final int index) {
+        checkIndex(index);
+        final Counter bucket = new Counter();
+        bucket.increment(nodes, (capacity + index) * COUNTER_BYTES_SIZE);
+        return bucket;
+    }
+
+    // ------------------------------------------
+
+    private void checkIndex(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in the range [0, " + size + ")");
+        }
+    }
+
+    // ------------------------------------------
+
+    private void updateNode(final int node) {
+        merged.wipe();
+        merged.increment(nodes, 2 * node * COUNTER_BYTES_SIZE);
+        merged.increment(nodes, (2 * node + 1) * COUNTER_BYTES_SIZE);
+        merged.toBytes(nodes, node * COUNTER_BYTES_SIZE);
+    }
+
+    // ------------------------------------------
+
+    private void grow() {
+        if (capacity == MAX_CAPACITY) {
+            throw new IllegalStateException("The index cannot hold more than " + MAX_CAPACITY + " buckets");
+        }
+        final int    oldCapacity = capacity;
+        final byte[] oldNodes    = nodes;
+        capacity <<= 1;
+        nodes = new byte[2 * capacity * COUNTER_BYTES_SIZE];
+        System.arraycopy(oldNodes, oldCapacity * COUNTER_BYTES_SIZE,
+                         nodes,    capacity    * COUNTER_BYTES_SIZE, oldCapacity * COUNTER_BYTES_SIZE);
+        for (int node = capacity - 1; node >= 1; node--) {
+            updateNode(node);
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return A new Counter with the merge of the buckets [from, to).
+     */
+    public Counter query(final int from, final int to) {
+        final Counter result = new Counter();
+        query(from, to, result);
+        return result;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge the buckets [from, to) into the result (with at most 2 * log2(capacity) merges).
+     */
+    public void query(final int from, final int to, final Counter result) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") is not within [0, " + size + ")");
+        }
+        int left  = from + capacity;
+        int right = to   + capacity;
+        while (left < right) {
+            if ((left & 1) == 1) {
+                result.increment(nodes, left++ * COUNTER_BYTES_SIZE);
+            }
+            if ((right & 1) == 1) {
+                result.increment(nodes, --right * COUNTER_BYTES_SIZE);
+            }
+            left  >>>= 1;
+            right >>>= 1;
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of values in all buckets
+     */
+    public long getN() {
+        return getLong(nodes, COUNTER_BYTES_SIZE + N_OFFSET);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        final int newCapacity = in.readInt();
+        final int newSize     = in.readInt();
+        if (newCapacity < 1 || newCapacity > MAX_CAPACITY || Integer.bitCount(newCapacity) != 1 ||
+            newSize < 0 || newSize > newCapacity) {
+            throw new IOException("Invalid CounterRangeIndex (capacity " + newCapacity + ", size " + newSize + ")");
+        }
+        capacity = newCapacity;
+        size     = newSize;
+        nodes    = new byte[2 * capacity * COUNTER_BYTES_SIZE];
+        in.readFully(nodes, COUNTER_BYTES_SIZE, (2 * capacity - 1) * COUNTER_BYTES_SIZE);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Writes the capacity, the size and all nodes 1 .. 2 * capacity - 1 as 40 byte records.
+     */
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(capacity);
+        out.writeInt(size);
+        out.write(nodes, COUNTER_BYTES_SIZE, (2 * capacity - 1) * COUNTER_BYTES_SIZE);
+    }
+
+    // ------------------------------------------
+
+}
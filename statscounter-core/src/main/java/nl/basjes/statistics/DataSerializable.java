@@ -0,0 +1,44 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Something that can serialize itself to a {@link DataOutput} and read itself back from a {@link DataInput}.
+ * This has exactly the same methods as the Hadoop Writable so a subclass only needs to
+ * declare it implements Writable (see the statscounter-hadoop module).
+ */
+public interface DataSerializable {
+
+    /**
+     * Serialize the fields of this object to out.
+     * @param out Where to write the fields to
+     * @throws IOException
+     */
+    void write(DataOutput out) throws IOException;
+
+    /**
+     * Deserialize the fields of this object from in.
+     * @param in Where to read the fields from
+     * @throws IOException
+     */
+    void readFields(DataInput in) throws IOException;
+
+}
@@ -0,0 +1,375 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.Counter.M2_OFFSET;
+import static nl.basjes.statistics.Counter.MAX_OFFSET;
+import static nl.basjes.statistics.Counter.MIN_OFFSET;
+import static nl.basjes.statistics.Counter.N_OFFSET;
+import static nl.basjes.statistics.Counter.SUM_OFFSET;
+import static nl.basjes.statistics.Counter.getDouble;
+import static nl.basjes.statistics.Counter.getLong;
+import static nl.basjes.statistics.Counter.putDouble;
+import static nl.basjes.statistics.Counter.putLong;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A counter from which previously added values (or counters) can be removed again, which makes it possible
+ * to maintain aggregates in O(1) when a source row is changed or deleted.
+ * 
+ * The count, sum and second moment are retracted by running the parallel algorithm of {@link Counter} backwards.
+ * The lowest and highest value cannot be retracted: once something was removed that could have been the
+ * lowest or highest value they are marked as no longer exact (see {@link #isMinMaxExact()}) and from then on
+ * getMin() is only a lower bound and getMax() only an upper bound of the real values.
+ */
+public class InvertibleCounter implements StatisticsCounter, DataSerializable {
+
+    private long    n;            // Count of values
+    private double  m2;           // Second moment of values that have been added
+    private double  sum;          // Total sum
+    private double  min;          // Lowest value (or a lower bound of it)
+    private double  max;          // Highest value (or an upper bound of it)
+    private boolean minMaxExact;  // Are min and max exact
+
+    // ------------------------------------------
+
+    public InvertibleCounter() {
+        wipe();
+    }
+
+    // ------------------------------------------
+
+    public InvertibleCounter(final byte[] bytes) {
+        wipe();
+        increment(bytes);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void wipe() {
+        n    = 0;
+        m2   = Double.NaN;
+        sum  = Double.NaN;
+        min  = Double.NaN;
+        max  = Double.NaN;
+        minMaxExact = true;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void increment(final double newValue) {
+        increment(1, 0.0, newValue, newValue, newValue);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void increment(final byte[] bytes) {
+        increment(
+            getLong  (bytes, N_OFFSET  ),  // Count of values
+            getDouble(bytes, M2_OFFSET ),  // Second moment of values that have been added
+            getDouble(bytes, SUM_OFFSET),  // Total sum
+            getDouble(bytes, MIN_OFFSET),  // Lowest value
+            getDouble(bytes, MAX_OFFSET)); // Highest value
+    }
+
+    // ------------------------------------------
+
+    public void increment(final Counter counter) {
+        if (counter == null) {
+            return;
+        }
+        increment(counter.toBytes());
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Creates the combined statistics by merging the specified counter into this counter.
+     * The min and max are only exact if they were exact in both counters.
+     * @param counter The counter that must be included in this counter
+     */
+    public void increment(final InvertibleCounter counter) {
+        if (counter == null || counter.n == 0) {
+            return;
+        }
+        final boolean exact = (n == 0 || minMaxExact) && counter.minMaxExact;
+        increment(counter.n, counter.m2, counter.sum, counter.min, counter.max);
+        minMaxExact = exact;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The same as the parallel algorithm in {@link Counter}.
+     */
+    private void increment(final long c_n, final double c_m2, final double c_sum, final double c_min, final double c_max) {
+        if (c_n == 0) {
+            return;
+        }
+
+        if (n == 0) {
+            n    = c_n;
+            m2   = c_m2;
+            sum  = c_sum;
+            min  = c_min;
+            max  = c_max;
+            return;
+        }
+
+        min = Math.min(min, c_min);
+        max = Math.max(max, c_max);
+
+        final double oldN = n;
+        final double meanDiff = (c_sum/c_n) - (sum/n);
+
+        sum += c_sum;
+        n   += c_n;
+
+        m2 = m2 + c_m2 + meanDiff * meanDiff * oldN * c_n / n;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Remove a single value that was added before.
+     * @param oldValue The value that must be removed from this counter
+     */
+    public void decrement(final double oldValue) {
+        decrement(1, 0.0, oldValue, oldValue, oldValue);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Remove a counter (given in the standard serialized form) that was added before.
+     * @param bytes The counter that must be removed from this counter as represented in bytes
+     */
+    public void decrement(final byte[] bytes) {
+        decrement(
+            getLong  (bytes, N_OFFSET  ),  // Count of values
+            getDouble(bytes, M2_OFFSET ),  // Second moment of values that have been added
+            getDouble(bytes, SUM_OFFSET),  // Total sum
+            getDouble(bytes, MIN_OFFSET),  // Lowest value
+            getDouble(bytes, MAX_OFFSET)); // Highest value
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Remove a counter that was added before.
+     * @param counter The counter that must be removed from this counter
+     */
+    public void decrement(final Counter counter) {
+        if (counter == null) {
+            return;
+        }
+        decrement(counter.toBytes());
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Remove a counter that was added before.
+     * The min and max are only exact afterwards if they were exact in both counters.
+     * @param counter The counter that must be removed from this counter
+     */
+    public void decrement(final InvertibleCounter counter) {
+        if (counter == null || counter.n == 0) {
+            return;
+        }
+        final boolean exact = minMaxExact && counter.minMaxExact;
+        decrement(counter.n, counter.m2, counter.sum, counter.min, counter.max);
+        if (n != 0) { // Else it was wiped and is exact again
+            minMaxExact &= exact;
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The parallel algorithm of {@link Counter} in reverse: given the combined statistics and
+     * the statistics of one part calculate the statistics of the other part.
+     * @param c_n   Count of values to remove
+     * @param c_m2  Second moment of values to remove
+     * @param c_sum Total sum of values to remove
+     * @param c_min Lowest value to remove
+     * @param c_max Highest value to remove
+     */
+    private void decrement(final long c_n, final double c_m2, final double c_sum, final double c_min, final double c_max) {
+        if (c_n == 0) {
+            return;
+        }
+        if (c_n > n) {
+            throw new IllegalArgumentException("Cannot remove " + c_n + " values from a counter that only has " + n);
+        }
+        if (c_n == n) {
+            wipe();
+            return;
+        }
+
+        final double oldN = n;
+        final long   newN = n - c_n;
+        final double newSum = sum - c_sum;
+        final double meanDiff = (c_sum/c_n) - (newSum/newN);
+
+        n   = newN;
+        sum = newSum;
+        // Rounding errors must never result in a negative second moment
+        m2  = Math.max(0.0, m2 - c_m2 - meanDiff * meanDiff * newN * c_n / oldN);
+
+        if (c_min <= min || c_max >= max) {
+            minMaxExact = false;
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Are getMin() and getMax() exact? If false they are only a lower and upper bound.
+     * @return
+     */
+    public boolean isMinMaxExact() {
+        return minMaxExact;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public byte[] toBytes() {
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        putLong  (  n, bytes, N_OFFSET  ); // Count of values
+        putDouble( m2, bytes, M2_OFFSET ); // Second moment of values that have been added
+        putDouble(sum, bytes, SUM_OFFSET); // Total sum
+        putDouble(min, bytes, MIN_OFFSET); // Lowest value
+        putDouble(max, bytes, MAX_OFFSET); // Highest value
+        return bytes;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public long getN() {
+        return n;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getSum() {
+        return sum;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getMean() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        return sum/n;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getVariance() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return 0d;
+        }
+        return m2 / (n - 1);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the lowest value that has been added (a lower bound if !isMinMaxExact())
+     * @return
+     */
+    @Override
+    public double getMin() {
+        return min;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the highest value that has been added (an upper bound if !isMinMaxExact())
+     * @return
+     */
+    @Override
+    public double getMax() {
+        return max;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     * This is the standard 40 byte form followed by a single byte for the isMinMaxExact flag.
+     */
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        in.readFully(bytes, 0, COUNTER_BYTES_SIZE);
+        wipe();
+        increment(bytes);
+        minMaxExact = in.readBoolean();
+    }
+
+    // ------------------------------------------
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.write(toBytes());
+        out.writeBoolean(minMaxExact);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public String toString() {
+        return "{"
+            + "\"n\":"    + n   // Count of values
+            + ",\"m2\":"  + m2  // Second moment of values that have been added
+            + ",\"sum\":" + sum // Total sum
+            + ",\"min\":" + min // Lowest value
+            + ",\"max\":" + max // Highest value
+            + ",\"minMaxExact\":" + minMaxExact
+            + "}";
+    }
+
+    // ------------------------------------------
+
+}
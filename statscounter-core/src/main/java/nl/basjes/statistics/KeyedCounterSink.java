@@ -0,0 +1,35 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import java.io.IOException;
+
+/**
+ * Receives a stream of keyed counters in their serialized 40 byte form (see {@link Counter#toBytes()}).
+ * @param <K> The type of the key
+ */
+public interface KeyedCounterSink<K> {
+
+    /**
+     * Receive a single keyed counter.
+     * @param key   The key of the counter
+     * @param bytes The counter as represented in bytes
+     * @throws IOException
+     */
+    void accept(K key, byte[] bytes) throws IOException;
+
+}
@@ -0,0 +1,398 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.Counter.M2_OFFSET;
+import static nl.basjes.statistics.Counter.MAX_OFFSET;
+import static nl.basjes.statistics.Counter.MIN_OFFSET;
+import static nl.basjes.statistics.Counter.N_OFFSET;
+import static nl.basjes.statistics.Counter.SUM_OFFSET;
+import static nl.basjes.statistics.Counter.putDouble;
+import static nl.basjes.statistics.Counter.putLong;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * A counter for integral values (bytes transferred, response codes, milliseconds, ...).
+ * All state is integer: the sum is an exact long and the sum of squares is an exact 128 bit value.
+ * Adding a value is only integer additions (and a multiplication) without any floating point divisions,
+ * and merging is bit exact and independent of the order (so truly Associative and Commutative).
+ * 
+ * The variance is derived from the exact numerator n*sum(x^2) - sum(x)^2 (see {@link #getVarianceNumerator()}).
+ * 
+ * When serialized a compact variable length encoding is used (typically much less than 40 bytes).
+ * Use {@link #toCounter()} to convert it into a normal {@link Counter}.
+ * 
+ * If the sum (or the sum of squares) no longer fits an ArithmeticException is thrown instead of silently overflowing.
+ */
+public class LongCounter implements DataSerializable {
+
+    private static final long LOW_32_BITS = 0xFFFFFFFFL;
+
+    // The largest absolute value of which the square still fits in a (signed) long.
+    private static final long MAX_SMALL_SQUARE = 3037000499L;
+
+    private long n;       // Count of values
+    private long sum;     // Total sum
+    private long sumSqHi; // Sum of the squares: the high 64 bits of an unsigned 128 bit value
+    private long sumSqLo; // Sum of the squares: the low  64 bits of an unsigned 128 bit value
+    private long min;     // Lowest value
+    private long max;     // Highest value
+
+    // ------------------------------------------
+
+    public LongCounter() {
+        wipe();
+    }
+
+    // ------------------------------------------
+
+    public void wipe() {
+        n       = 0;
+        sum     = 0;
+        sumSqHi = 0;
+        sumSqLo = 0;
+        min     = Long.MAX_VALUE;
+        max     = Long.MIN_VALUE;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Include a single value in this counter.
+     * @param newValue The value that must be included in this counter
+     */
+    public void increment(final long newValue) {
+        // Everything is checked before any field is changed so an overflow leaves this counter untouched.
+        final long newSum = addExact(sum, newValue);
+
+        final long abs = newValue < 0 ? -newValue : newValue; // Long.MIN_VALUE stays the same: 2^63 as unsigned
+        final long squareHi = (abs >= 0 && abs <= MAX_SMALL_SQUARE) ? 0 : multiplyHighUnsigned(abs, abs);
+        final long squareLo = abs * abs;
+        final long newSumSqHi = addSquaresHigh(sumSqHi, sumSqLo, squareHi, squareLo);
+
+        sum     = newSum;
+        sumSqHi = newSumSqHi;
+        sumSqLo = sumSqLo + squareLo;
+        n++;
+        if (newValue < min) {
+            min = newValue;
+        }
+        if (newValue > max) {
+            max = newValue;
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Creates the combined statistics by merging the current counter with the specified counter.
+     * @param counter The counter that must be included in this counter
+     */
+    public void increment(final LongCounter counter) {
+        if (counter == null || counter.n == 0) {
+            return;
+        }
+        // Read everything first to make merging with itself work
+        final long cN       = counter.n;
+        final long cSum     = counter.sum;
+        final long cSumSqHi = counter.sumSqHi;
+        final long cSumSqLo = counter.sumSqLo;
+        final long cMin     = counter.min;
+        final long cMax     = counter.max;
+
+        // Everything is checked before any field is changed so an overflow leaves this counter untouched.
+        final long newSum     = addExact(sum, cSum);
+        final long newSumSqHi = addSquaresHigh(sumSqHi, sumSqLo, cSumSqHi, cSumSqLo);
+        final long newN       = addExact(n, cN);
+
+        sum     = newSum;
+        sumSqHi = newSumSqHi;
+        sumSqLo = sumSqLo + cSumSqLo;
+        n       = newN;
+        min     = Math.min(min, cMin);
+        max     = Math.max(max, cMax);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The high 64 bits of the unsigned 128 bit sum of (sqHi, sqLo) and (hi, lo).
+     * The low 64 bits are simply sqLo + lo.
+     */
+    private static long addSquaresHigh(final long sqHi, final long sqLo, final long hi, final long lo) {
+        final long newLo = sqLo + lo;
+        final long carry = unsignedLessThan(newLo, sqLo) ? 1 : 0;
+        final long newHi = sqHi + hi + carry;
+        if (unsignedLessThan(newHi, sqHi) || (newHi == sqHi && (hi != 0 || carry != 0))) {
+            throw new ArithmeticException("The sum of squares of the LongCounter overflows 128 bits");
+        }
+        return newHi;
+    }
+
+    // ------------------------------------------
+
+    private static boolean unsignedLessThan(final long a, final long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    // ------------------------------------------
+
+    private static long addExact(final long a, final long b) {
+        final long result = a + b;
+        if (((a ^ result) & (b ^ result)) < 0) {
+            throw new ArithmeticException("The sum of the LongCounter overflows a long");
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The high 64 bits of the unsigned 128 bit product of a and b (both seen as unsigned).
+     */
+    private static long multiplyHighUnsigned(final long a, final long b) {
+        final long a0 = a & LOW_32_BITS;
+        final long a1 = a >>> 32;
+        final long b0 = b & LOW_32_BITS;
+        final long b1 = b >>> 32;
+
+        final long p00 = a0 * b0;
+        final long p01 = a0 * b1;
+        final long p10 = a1 * b0;
+        final long p11 = a1 * b1;
+
+        final long middle = (p00 >>> 32) + (p01 & LOW_32_BITS) + (p10 & LOW_32_BITS);
+        return p11 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the number of increments that have been added
+     * @return
+     */
+    public long getN() {
+        return n;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the exact sum of all increments that have been added
+     * @return
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the exact sum of the squares of all increments that have been added
+     * @return
+     */
+    public BigInteger getSumOfSquares() {
+        return toUnsigned(sumSqHi).shiftLeft(64).or(toUnsigned(sumSqLo));
+    }
+
+    // ------------------------------------------
+
+    private static BigInteger toUnsigned(final long value) {
+        final BigInteger result = BigInteger.valueOf(value & Long.MAX_VALUE);
+        if (value < 0) {
+            return result.setBit(63);
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the exact numerator of the variance: n*sum(x^2) - sum(x)^2 (which is n times the second moment).
+     * @return
+     */
+    public BigInteger getVarianceNumerator() {
+        final BigInteger bigSum = BigInteger.valueOf(sum);
+        return BigInteger.valueOf(n).multiply(getSumOfSquares()).subtract(bigSum.multiply(bigSum));
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the mean (average) of all increments that have been added
+     * @return
+     */
+    public double getMean() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        return (double) sum / n;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the variance of all increments that have been added
+     * @return
+     */
+    public double getVariance() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return 0d;
+        }
+        return getVarianceNumerator().doubleValue() / ((double) n * (n - 1));
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the standard deviation of all increments that have been added
+     * @return
+     */
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the lowest value that has been added (only meaningful if getN() &gt; 0)
+     * @return
+     */
+    public long getMin() {
+        return min;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the highest value that has been added (only meaningful if getN() &gt; 0)
+     * @return
+     */
+    public long getMax() {
+        return max;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Convert this into a normal {@link Counter} (which can then be merged with other Counters).
+     * @return A new Counter with the same statistics
+     */
+    public Counter toCounter() {
+        if (n == 0) {
+            return new Counter();
+        }
+        final double m2 = getVarianceNumerator().doubleValue() / n;
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        putLong  (  n, bytes, N_OFFSET  ); // Count of values
+        putDouble( m2, bytes, M2_OFFSET ); // Second moment of values that have been added
+        putDouble(sum, bytes, SUM_OFFSET); // Total sum
+        putDouble(min, bytes, MIN_OFFSET); // Lowest value
+        putDouble(max, bytes, MAX_OFFSET); // Highest value
+        return new Counter(bytes);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * {@inheritDoc}
+     * The compact form is a sequence of variable length numbers (7 bits per byte):
+     * n and only if n &gt; 0 followed by (zigzag encoded) sum, min, max and the two halves of the sum of squares.
+     */
+    public void write(final DataOutput out) throws IOException {
+        writeVLong(out, n);
+        if (n == 0) {
+            return;
+        }
+        writeVLong(out, zigZag(sum));
+        writeVLong(out, zigZag(min));
+        writeVLong(out, zigZag(max));
+        writeVLong(out, sumSqHi);
+        writeVLong(out, sumSqLo);
+    }
+
+    // ------------------------------------------
+
+    /** {@inheritDoc} */
+    public void readFields(final DataInput in) throws IOException {
+        wipe();
+        n = readVLong(in);
+        if (n == 0) {
+            return;
+        }
+        sum     = unZigZag(readVLong(in));
+        min     = unZigZag(readVLong(in));
+        max     = unZigZag(readVLong(in));
+        sumSqHi = readVLong(in);
+        sumSqLo = readVLong(in);
+    }
+
+    // ------------------------------------------
+
+    private static long zigZag(final long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(final long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVLong(final DataOutput out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.writeByte((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    private static long readVLong(final DataInput in) throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable length number");
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public String toString() {
+        return "{"
+            + "\"n\":"      + n                  // Count of values
+            + ",\"sum\":"   + sum                // Total sum
+            + ",\"sumSq\":" + getSumOfSquares()  // Sum of the squares
+            + ",\"min\":"   + min                // Lowest value
+            + ",\"max\":"   + max                // Highest value
+            + "}";
+    }
+
+    // ------------------------------------------
+
+}
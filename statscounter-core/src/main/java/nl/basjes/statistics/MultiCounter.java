@@ -0,0 +1,288 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.Counter.M2_OFFSET;
+import static nl.basjes.statistics.Counter.MAX_OFFSET;
+import static nl.basjes.statistics.Counter.MIN_OFFSET;
+import static nl.basjes.statistics.Counter.N_OFFSET;
+import static nl.basjes.statistics.Counter.SUM_OFFSET;
+import static nl.basjes.statistics.Counter.putDouble;
+import static nl.basjes.statistics.Counter.putLong;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Several metrics of the same events (i.e. latency, bytes and database time of every request) in one record.
+ * Every event has a value for each of a fixed number of lanes so the count is shared and only stored once.
+ * Each lane keeps the same sum/m2/min/max as a {@link Counter} and is updated with exactly the same calculation,
+ * so {@link #getLane(int)} gives the same result as a separate Counter per metric would.
+ * Serialized this takes 9 + 32 * lanes bytes instead of 40 * lanes bytes.
+ */
+public class MultiCounter implements DataSerializable {
+
+    public static final int MAX_LANES = 255;
+
+    private long     n;     // Count of events
+    private double[] m2;    // Second moment of the values per lane
+    private double[] sum;   // Total sum per lane
+    private double[] min;   // Lowest value per lane
+    private double[] max;   // Highest value per lane
+
+    // ------------------------------------------
+
+    /**
+     * A MultiCounter with a single lane (i.e. to deserialize into).
+     */
+    public MultiCounter() {
+        this(1);
+    }
+
+    // ------------------------------------------
+
+    public MultiCounter(final int lanes) {
+        setLanes(lanes);
+    }
+
+    // ------------------------------------------
+
+    private void setLanes(final int lanes) {
+        if (lanes < 1 || lanes > MAX_LANES) {
+            throw new IllegalArgumentException("The lanes must be in the range [1, " + MAX_LANES + "] (was " + lanes + ")");
+        }
+        m2  = new double[lanes];
+        sum = new double[lanes];
+        min = new double[lanes];
+        max = new double[lanes];
+        wipe();
+    }
+
+    // ------------------------------------------
+
+    public void wipe() {
+        n = 0;
+        Arrays.fill(m2,  Double.NaN);
+        Arrays.fill(sum, Double.NaN);
+        Arrays.fill(min, Double.NaN);
+        Arrays.fill(max, Double.NaN);
+    }
+
+    // ------------------------------------------
+
+    public int getLanes() {
+        return sum.length;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Add a single event.
+     * @param values The value of each lane (passing a reused array avoids creating one per call)
+     */
+    public void increment(final double... values) {
+        if (values.length != sum.length) {
+            throw new IllegalArgumentException("Expected " + sum.length + " values (was " + values.length + ")");
+        }
+        if (n == 0) {
+            n = 1;
+            for (int lane = 0; lane < values.length; lane++) {
+                final double value = values[lane];
+                m2[lane]  = 0.0;
+                sum[lane] = value;
+                min[lane] = value;
+                max[lane] = value;
+            }
+            return;
+        }
+
+        final double oldN = n;
+        n++;
+        for (int lane = 0; lane < values.length; lane++) {
+            final double value    = values[lane];
+            final double meanDiff = value - (sum[lane] / oldN);
+            min[lane]  = Math.min(min[lane], value);
+            max[lane]  = Math.max(max[lane], value);
+            sum[lane] += value;
+            m2[lane]   = m2[lane] + meanDiff * meanDiff * oldN / n;
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge the other MultiCounter (which must have the same number of lanes) lane by lane
+     * with the parallel algorithm of {@link Counter}.
+     */
+    public void increment(final MultiCounter other) {
+        if (other == null) {
+            return;
+        }
+        if (other.sum.length != sum.length) {
+            throw new IllegalArgumentException("Cannot merge a MultiCounter with " + other.sum.length +
+                                               " lanes into one with " + sum.length + " lanes");
+        }
+        if (other.n == 0) {
+            return;
+        }
+        if (n == 0) {
+            n = other.n;
+            System.arraycopy(other.m2,  0, m2,  0, m2.length);
+            System.arraycopy(other.sum, 0, sum, 0, sum.length);
+            System.arraycopy(other.min, 0, min, 0, min.length);
+            System.arraycopy(other.max, 0, max, 0, max.length);
+            return;
+        }
+
+        final double oldN = n;
+        final long   c_n  = other.n;
+        n += c_n;
+        for (int lane = 0; lane < sum.length; lane++) {
+            final double meanDiff = (other.sum[lane] / c_n) - (sum[lane] / oldN);
+            min[lane]  = Math.min(min[lane], other.min[lane]);
+            max[lane]  = Math.max(max[lane], other.max[lane]);
+            sum[lane] += other.sum[lane];
+            m2[lane]   = m2[lane] + other.m2[lane] + meanDiff * meanDiff * oldN * c_n / n;
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of events
+     */
+    public long getN() {
+        return n;
+    }
+
+    // ------------------------------------------
+
+    public double getSum(final int lane) {
+        return sum[lane];
+    }
+
+    // ------------------------------------------
+
+    public double getMean(final int lane) {
+        return sum[lane] / n;
+    }
+
+    // ------------------------------------------
+
+    public double getVariance(final int lane) {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return 0d;
+        }
+        return m2[lane] / (n - 1);
+    }
+
+    // ------------------------------------------
+
+    public double getStdDev(final int lane) {
+        return Math.sqrt(getVariance(lane));
+    }
+
+    // ------------------------------------------
+
+    public double getMin(final int lane) {
+        return min[lane];
+    }
+
+    // ------------------------------------------
+
+    public double getMax(final int lane) {
+        return max[lane];
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return A new Counter with the statistics of a single lane.
+     */
+    public Counter getLane(final int lane) {
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        putLong  (n,         bytes, N_OFFSET  ); // Count of values
+        putDouble(m2[lane],  bytes, M2_OFFSET ); // Second moment of values that have been added
+        putDouble(sum[lane], bytes, SUM_OFFSET); // Total sum
+        putDouble(min[lane], bytes, MIN_OFFSET); // Lowest value
+        putDouble(max[lane], bytes, MAX_OFFSET); // Highest value
+        return new Counter(bytes);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        final int lanes = in.readUnsignedByte();
+        if (lanes < 1) {
+            throw new IOException("Invalid number of lanes " + lanes);
+        }
+        if (lanes != sum.length) {
+            setLanes(lanes);
+        }
+        n = in.readLong();
+        for (int lane = 0; lane < lanes; lane++) {
+            m2[lane]  = in.readDouble();
+            sum[lane] = in.readDouble();
+            min[lane] = in.readDouble();
+            max[lane] = in.readDouble();
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.writeByte(sum.length);
+        out.writeLong(n);
+        for (int lane = 0; lane < sum.length; lane++) {
+            out.writeDouble(m2[lane]);
+            out.writeDouble(sum[lane]);
+            out.writeDouble(min[lane]);
+            out.writeDouble(max[lane]);
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder();
+        result.append("{\"n\":").append(n).append(",\"lanes\":[");
+        for (int lane = 0; lane < sum.length; lane++) {
+            if (lane > 0) {
+                result.append(',');
+            }
+            result
+                .append("{\"m2\":").append(m2[lane])
+                .append(",\"sum\":").append(sum[lane])
+                .append(",\"min\":").append(min[lane])
+                .append(",\"max\":").append(max[lane])
+                .append('}');
+        }
+        return result.append("]}").toString();
+    }
+
+    // ------------------------------------------
+
+}
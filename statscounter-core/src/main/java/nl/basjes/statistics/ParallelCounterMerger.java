@@ -0,0 +1,297 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Merges large numbers of counters on a {@link ForkJoinPool} as a balanced binary tree.
+ * The input is split in halves until a range contains at most leafSize counters; those are merged
+ * sequentially and then the partial results are merged pairwise back up the tree.
+ * 
+ * Because the merge is associative and commutative the result is the same as that of a linear fold:
+ * - n, min and max are exactly identical.
+ * - sum and m2 are only subject to floating point rounding. With u = 2^-53 (the unit roundoff of a double),
+ *   L = leafSize and N the number of counters the rounding error of sum is bounded by (to first order)
+ *      |error| &lt;= (L + ceil(log2(N/L))) * u * (the sum of the absolute values of the merged sums)
+ *   whereas a linear fold has N instead of (L + ceil(log2(N/L))) in this bound.
+ *   The rounding error of m2 has a bound of the same shape relative to
+ *      m2 + (the sum over all counters of n_i * (mean_i - mean)^2)
+ *   so it is small as long as the data has a meaningful variance compared to its mean.
+ */
+public class ParallelCounterMerger {
+
+    /** The default maximum number of counters that are merged sequentially. */
+    public static final int DEFAULT_LEAF_SIZE = 4096;
+
+    // A memory mapped window must stay below 2GB and contain only whole records.
+    private static final int RECORDS_PER_WINDOW = Integer.MAX_VALUE / COUNTER_BYTES_SIZE;
+
+    private final ForkJoinPool pool;
+    private final int          leafSize;
+
+    // ------------------------------------------
+
+    public ParallelCounterMerger(final ForkJoinPool pool) {
+        this(pool, DEFAULT_LEAF_SIZE);
+    }
+
+    // ------------------------------------------
+
+    public ParallelCounterMerger(final ForkJoinPool pool, final int leafSize) {
+        if (leafSize < 1) {
+            throw new IllegalArgumentException("The leafSize must be at least 1 (was " + leafSize + ")");
+        }
+        this.pool     = pool;
+        this.leafSize = leafSize;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge all counters (null values are ignored).
+     * @param counters The counters to merge
+     * @return A new counter with the combined statistics
+     */
+    public Counter merge(final Counter[] counters) {
+        return merge(counters, 0, counters.length);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge the counters in the range [from, to) (null values are ignored).
+     * @param counters The counters to merge
+     * @param from     The first counter to merge
+     * @param to       The index after the last counter to merge
+     * @return A new counter with the combined statistics
+     */
+    public Counter merge(final Counter[] counters, final int from, final int to) {
+        return pool.invoke(new ArrayMerge(counters, from, to));
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge a sequence of serialized counters (see {@link Counter#toBytes()}) that are stored back to back.
+     * @param bytes   The serialized counters
+     * @param offset  Where the first serialized counter starts
+     * @param records The number of serialized counters
+     * @return A new counter with the combined statistics
+     */
+    public Counter merge(final byte[] bytes, final int offset, final int records) {
+        if (offset < 0 || records < 0 || offset + (long) records * COUNTER_BYTES_SIZE > bytes.length) {
+            throw new IllegalArgumentException("The " + records + " records at offset " + offset
+                    + " do not fit in the " + bytes.length + " available bytes");
+        }
+        return pool.invoke(new ByteArrayMerge(bytes, offset, 0, records));
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge a sequence of serialized counters (see {@link Counter#toBytes()}) that are stored back to back
+     * between the position and the limit of the buffer. The position of the buffer is not changed.
+     * @param buffer The serialized counters
+     * @return A new counter with the combined statistics
+     */
+    public Counter merge(final ByteBuffer buffer) {
+        if (buffer.remaining() % COUNTER_BYTES_SIZE != 0) {
+            throw new IllegalArgumentException("The " + buffer.remaining()
+                    + " bytes are not a whole number of serialized counters");
+        }
+        final ByteBuffer slice = buffer.slice();
+        return pool.invoke(new BuffersMerge(new ByteBuffer[]{slice}, slice.remaining() / COUNTER_BYTES_SIZE,
+                                            0, slice.remaining() / COUNTER_BYTES_SIZE));
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge a file that contains only serialized counters (see {@link Counter#toBytes()}) stored back to back.
+     * The file is memory mapped so it can be much larger than the available heap.
+     * @param file The file with serialized counters
+     * @return A new counter with the combined statistics
+     * @throws IOException
+     */
+    public Counter merge(final File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long size = channel.size();
+            if (size % COUNTER_BYTES_SIZE != 0) {
+                throw new IOException("The file " + file + " (" + size
+                        + " bytes) does not contain a whole number of serialized counters");
+            }
+            final long records = size / COUNTER_BYTES_SIZE;
+            if (records > Integer.MAX_VALUE) {
+                throw new IOException("The file " + file + " contains too many counters (" + records + ")");
+            }
+
+            final int windowCount = (int) ((records + RECORDS_PER_WINDOW - 1) / RECORDS_PER_WINDOW);
+            final ByteBuffer[] windows = new ByteBuffer[windowCount];
+            for (int window = 0; window < windowCount; window++) {
+                final long start = (long) window * RECORDS_PER_WINDOW * COUNTER_BYTES_SIZE;
+                windows[window] = channel.map(MapMode.READ_ONLY, start,
+                                              Math.min((long) RECORDS_PER_WINDOW * COUNTER_BYTES_SIZE, size - start));
+            }
+            return pool.invoke(new BuffersMerge(windows, RECORDS_PER_WINDOW, 0, (int) records));
+        } finally {
+            raf.close();
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merges a range of the input by splitting it until it is small enough to merge sequentially.
+     */
+    private abstract class RangeMerge extends RecursiveTask<Counter> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        RangeMerge(final int from, final int to) {
+            this.from = from;
+            this.to   = to;
+        }
+
+        protected abstract RangeMerge create(int subFrom, int subTo);
+
+        protected abstract void mergeLeaf(Counter result, int leafFrom, int leafTo);
+
+        @Override
+        protected Counter compute() {
+            if (to - from <= leafSize) {
+                final Counter result = new Counter();
+                mergeLeaf(result, from, to);
+                return result;
+            }
+            final int middle = (from + to) >>> 1;
+            final RangeMerge left  = create(from, middle);
+            final RangeMerge right = create(middle, to);
+            right.fork();
+            final Counter result = left.compute();
+            result.increment(right.join());
+            return result;
+        }
+    }
+
+    // ------------------------------------------
+
+    private final class ArrayMerge extends RangeMerge {
+        private static final long serialVersionUID = 1L;
+
+        private final Counter[] counters;
+
+        ArrayMerge(final Counter[] counters, final int from, final int to) {
+            super(from, to);
+            this.counters = counters;
+        }
+
+        @Override
+        protected RangeMerge create(final int subFrom, final int subTo) {
+            return new ArrayMerge(counters, subFrom, subTo);
+        }
+
+        @Override
+        protected void mergeLeaf(final Counter result, final int leafFrom, final int leafTo) {
+            for (int i = leafFrom; i < leafTo; i++) {
+                result.increment(counters[i]);
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    private final class ByteArrayMerge extends RangeMerge {
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] bytes;
+        private final int    offset;
+
+        ByteArrayMerge(final byte[] bytes, final int offset, final int from, final int to) {
+            super(from, to);
+            this.bytes  = bytes;
+            this.offset = offset;
+        }
+
+        @Override
+        protected RangeMerge create(final int subFrom, final int subTo) {
+            return new ByteArrayMerge(bytes, offset, subFrom, subTo);
+        }
+
+        @Override
+        protected void mergeLeaf(final Counter result, final int leafFrom, final int leafTo) {
+            for (int record = leafFrom; record < leafTo; record++) {
+                result.increment(bytes, offset + record * COUNTER_BYTES_SIZE);
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    private final class BuffersMerge extends RangeMerge {
+        private static final long serialVersionUID = 1L;
+
+        private final ByteBuffer[] windows;
+        private final int          recordsPerWindow;
+
+        BuffersMerge(final ByteBuffer[] windows, final int recordsPerWindow, final int from, final int to) {
+            super(from, to);
+            this.windows          = windows;
+            this.recordsPerWindow = recordsPerWindow;
+        }
+
+        @Override
+        protected RangeMerge create(final int subFrom, final int subTo) {
+            return new BuffersMerge(windows, recordsPerWindow, subFrom, subTo);
+        }
+
+        @Override
+        protected void mergeLeaf(final Counter result, final int leafFrom, final int leafTo) {
+            final byte[] scratch = new byte[COUNTER_BYTES_SIZE];
+            int record = leafFrom;
+            while (record < leafTo) {
+                final int window      = record / recordsPerWindow;
+                final int windowStart = window * recordsPerWindow;
+                final int windowEnd   = Math.min(leafTo, windowStart + recordsPerWindow);
+
+                // Each leaf needs its own position so it uses its own view on the shared buffer
+                final ByteBuffer view = windows[window].duplicate();
+                view.position((record - windowStart) * COUNTER_BYTES_SIZE);
+                for (; record < windowEnd; record++) {
+                    view.get(scratch);
+                    result.increment(scratch);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+}
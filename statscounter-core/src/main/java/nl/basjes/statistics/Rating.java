@@ -51,6 +51,9 @@ import java.text.DecimalFormat;
  * 
  */
 public class Rating extends Counter implements Comparable<Rating> {
+
+    private static final long serialVersionUID = 1L;
+
     private double globalMean;
 
     // ------------------------------------------
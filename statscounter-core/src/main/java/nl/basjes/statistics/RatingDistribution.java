@@ -0,0 +1,313 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.Counter.M2_OFFSET;
+import static nl.basjes.statistics.Counter.MAX_OFFSET;
+import static nl.basjes.statistics.Counter.MIN_OFFSET;
+import static nl.basjes.statistics.Counter.N_OFFSET;
+import static nl.basjes.statistics.Counter.SUM_OFFSET;
+import static nl.basjes.statistics.Counter.putDouble;
+import static nl.basjes.statistics.Counter.putLong;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The number of ratings per star level (1 .. levels) of an item.
+ * As mentioned in {@link Rating} a normal distribution fits discrete (and often polarizing) ratings poorly.
+ * Keeping the full distribution in a small fixed size record allows better ranking models
+ * without going back to the raw ratings. Merging is simply adding the counts per level.
+ * 
+ * Bayesian Approach II: Dirichlet Prior over Rating Distributions
+ * (same source as {@link Rating}: http://stats.stackexchange.com/questions/15979/how-to-find-confidence-intervals-for-ratings)
+ * 
+ * The ratings are modeled as a multinomial distribution with a Dirichlet prior (pseudo counts per level).
+ * The posterior mean rating is then
+ * 
+ *    sum_k s_k * (n_k + a_k) / (N + sum_k a_k)
+ * 
+ * and a lower bound of the rating (Evan Miller: http://www.evanmiller.org/ranking-items-with-star-ratings.html)
+ * using a uniform prior of 1 per level is
+ * 
+ *    S - z * sqrt((sum_k s_k^2 * (n_k + 1) / (N + K) - S^2) / (N + K + 1))
+ * 
+ * with S the posterior mean rating, K the number of levels and z the quantile of the normal distribution
+ * for the wanted confidence (1.65 for 95%).
+ * 
+ * Counts are never negative and if a count (or the total) no longer fits an ArithmeticException is thrown
+ * instead of silently overflowing.
+ */
+public class RatingDistribution implements DataSerializable {
+
+    public static final int    DEFAULT_LEVELS = 5;
+    public static final int    MAX_LEVELS     = 100;
+    public static final double Z_95_PERCENT   = 1.65;
+
+    private long[] counts;
+
+    // ------------------------------------------
+
+    public RatingDistribution() {
+        this(DEFAULT_LEVELS);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param levels The number of star levels (i.e. the ratings are 1 .. levels)
+     */
+    public RatingDistribution(final int levels) {
+        if (levels < 1 || levels > MAX_LEVELS) {
+            throw new IllegalArgumentException("The levels must be in the range [1, " + MAX_LEVELS + "] (was " + levels + ")");
+        }
+        counts = new long[levels];
+    }
+
+    // ------------------------------------------
+
+    public void wipe() {
+        Arrays.fill(counts, 0);
+    }
+
+    // ------------------------------------------
+
+    public int getLevels() {
+        return counts.length;
+    }
+
+    // ------------------------------------------
+
+    private void checkStars(final int stars) {
+        if (stars < 1 || stars > counts.length) {
+            throw new IllegalArgumentException("The stars must be in the range [1, " + counts.length + "] (was " + stars + ")");
+        }
+    }
+
+    // ------------------------------------------
+
+    public void increment(final int stars) {
+        increment(stars, 1);
+    }
+
+    // ------------------------------------------
+
+    public void increment(final int stars, final long count) {
+        checkStars(stars);
+        if (count < 0) {
+            throw new IllegalArgumentException("The count must not be negative (was " + count + ")");
+        }
+        counts[stars - 1] = addExact(counts[stars - 1], count);
+    }
+
+    // ------------------------------------------
+
+    private static long addExact(final long a, final long b) {
+        final long result = a + b;
+        if (((a ^ result) & (b ^ result)) < 0) {
+            throw new ArithmeticException("The count of the RatingDistribution overflows a long");
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Add all the ratings of the other distribution (which must have the same number of levels).
+     */
+    public void increment(final RatingDistribution other) {
+        if (other == null) {
+            return;
+        }
+        if (other.counts.length != counts.length) {
+            throw new IllegalArgumentException("Cannot merge a distribution with " + other.counts.length +
+                                               " levels into one with " + counts.length + " levels");
+        }
+        // Check all levels before changing anything
+        for (int level = 0; level < counts.length; level++) {
+            addExact(counts[level], other.counts[level]);
+        }
+        for (int level = 0; level < counts.length; level++) {
+            counts[level] += other.counts[level];
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of ratings with the specified number of stars.
+     */
+    public long getCount(final int stars) {
+        checkStars(stars);
+        return counts[stars - 1];
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The total number of ratings.
+     */
+    public long getN() {
+        long n = 0;
+        for (long count : counts) {
+            n = addExact(n, count);
+        }
+        return n;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The plain mean of the ratings (NaN if there are none).
+     */
+    public double getMean() {
+        return getDirichletScore(0.0);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The posterior mean rating with a uniform Dirichlet prior.
+     * @param pseudoCount The prior number of ratings for each level
+     */
+    public double getDirichletScore(final double pseudoCount) {
+        double total = 0;
+        double sum   = 0;
+        for (int level = 0; level < counts.length; level++) {
+            final double count = counts[level] + pseudoCount;
+            total += count;
+            sum   += count * (level + 1);
+        }
+        return sum / total;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The posterior mean rating with a Dirichlet prior.
+     * @param prior The prior number of ratings for each level (index 0 is 1 star)
+     */
+    public double getDirichletScore(final double[] prior) {
+        if (prior.length != counts.length) {
+            throw new IllegalArgumentException("The prior must have " + counts.length + " levels (was " + prior.length + ")");
+        }
+        double total = 0;
+        double sum   = 0;
+        for (int level = 0; level < counts.length; level++) {
+            final double count = counts[level] + prior[level];
+            total += count;
+            sum   += count * (level + 1);
+        }
+        return sum / total;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The lower bound of the rating with 95% confidence.
+     */
+    public double getLowerBoundScore() {
+        return getLowerBoundScore(Z_95_PERCENT);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param z The quantile of the normal distribution for the wanted confidence
+     * @return The lower bound of the rating (uniform Dirichlet prior of 1 rating per level)
+     */
+    public double getLowerBoundScore(final double z) {
+        final double total = getN() + counts.length;
+        double mean   = 0;
+        double square = 0;
+        for (int level = 0; level < counts.length; level++) {
+            final double stars  = level + 1;
+            final double chance = (counts[level] + 1) / total;
+            mean   += stars * chance;
+            square += stars * stars * chance;
+        }
+        return mean - z * Math.sqrt((square - mean * mean) / (total + 1));
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return A Counter with exactly the same statistics as all individual ratings added to it.
+     */
+    public Counter toCounter() {
+        final Counter result = new Counter();
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        for (int level = 0; level < counts.length; level++) {
+            final long   count = counts[level];
+            final double stars = level + 1;
+            if (count == 0) {
+                continue;
+            }
+            putLong  (count,         bytes, N_OFFSET  );  // Count of values
+            putDouble(0.0,           bytes, M2_OFFSET );  // All values are the same
+            putDouble(count * stars, bytes, SUM_OFFSET);  // Total sum
+            putDouble(stars,         bytes, MIN_OFFSET);  // Lowest value
+            putDouble(stars,         bytes, MAX_OFFSET);  // Highest value
+            result.increment(bytes);
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        final int levels = in.readUnsignedByte();
+        if (levels < 1 || levels > MAX_LEVELS) {
+            throw new IOException("Invalid number of levels " + levels);
+        }
+        if (counts.length != levels) {
+            counts = new long[levels];
+        }
+        for (int level = 0; level < levels; level++) {
+            final long count = in.readLong();
+            if (count < 0) {
+                wipe();
+                throw new IOException("Invalid negative count " + count);
+            }
+            counts[level] = count;
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.writeByte(counts.length);
+        for (long count : counts) {
+            out.writeLong(count);
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public String toString() {
+        return "{\"counts\":" + Arrays.toString(counts) + "}";
+    }
+
+    // ------------------------------------------
+
+}
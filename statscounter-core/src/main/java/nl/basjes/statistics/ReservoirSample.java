@@ -0,0 +1,269 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed capacity uniformly random sample of all values that were added (reservoir sampling, "Algorithm R").
+ * Adding a value is O(1) and does not allocate anything; the random numbers come from an embedded xorshift64*
+ * generator (whose state is part of the serialized form).
+ * 
+ * Two samples can be merged into a uniform sample of the union of their values: the values are drawn
+ * without replacement from both samples weighted by the number of values each has seen.
+ * This makes merging associative in distribution so the sample can be used in combiners.
+ * A sample that had to drop values can never contribute more values than it holds, so merging samples with
+ * different capacities results in a sample that is only as large as the smallest of those
+ * (see {@link #merge(ReservoirSample)}).
+ */
+public class ReservoirSample implements DataSerializable {
+
+    public static final int DEFAULT_CAPACITY = 100;
+
+    private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(0x2545F4914F6CDD1DL);
+
+    private double[] values;    // The sample
+    private int      size;      // Number of values in the sample
+    private long     count;     // Number of values the sample was taken from
+    private long     random;    // State of the random generator (never 0)
+
+    // ------------------------------------------
+
+    public ReservoirSample() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // ------------------------------------------
+
+    public ReservoirSample(final int capacity) {
+        this(capacity, SEED_UNIQUIFIER.addAndGet(0x9E3779B97F4A7C15L) ^ System.nanoTime());
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param capacity The maximum number of values in the sample
+     * @param seed     The seed of the random generator (for reproducible samples)
+     */
+    public ReservoirSample(final int capacity, final long seed) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The capacity must be at least 1 (was " + capacity + ")");
+        }
+        values = new double[capacity];
+        random = seed == 0 ? 1 : seed;
+        wipe();
+    }
+
+    // ------------------------------------------
+
+    public void wipe() {
+        size  = 0;
+        count = 0;
+    }
+
+    // ------------------------------------------
+
+    private long nextRandom() {
+        random ^= random >>> 12;
+        random ^= random << 25;
+        random ^= random >>> 27;
+        return random * 0x2545F4914F6CDD1DL;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return A random number in the range [0, bound)
+     */
+    private long nextRandom(final long bound) {
+        return (nextRandom() >>> 1) % bound;
+    }
+
+    // ------------------------------------------
+
+    public void add(final double value) {
+        count++;
+        if (size == count - 1 && size < values.length) { // Still holds all values
+            values[size++] = value;
+            return;
+        }
+        final long index = nextRandom(count);
+        if (index < size) {
+            values[(int) index] = value;
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge the other sample into this one.
+     * The result is a uniform sample of all values seen by both. Its size is at most the capacity of this sample
+     * and at most the size of each of the two samples that did not keep all the values it has seen:
+     * drawing more would need more values from such a sample than it has, which over represents the other one.
+     */
+    public void merge(final ReservoirSample other) {
+        if (other == null || other.count == 0) {
+            return;
+        }
+        if (other == this) {
+            throw new IllegalArgumentException("Cannot merge a sample with itself");
+        }
+
+        // Both sides are shuffled while drawing so we work on copies
+        final double[] mine    = Arrays.copyOf(values, size);
+        final double[] theirs  = Arrays.copyOf(other.values, other.size);
+        long mineRemaining     = count;
+        long theirsRemaining   = other.count;
+        int  mineTaken         = 0;
+        int  theirsTaken       = 0;
+
+        // A sample that holds all its values can never run out (its remaining count drops to 0 when it is empty),
+        // a sample that dropped values must not be asked for more than it holds.
+        int target = (int) Math.min(values.length, (long) mine.length + theirs.length);
+        if (size < count) {
+            target = Math.min(target, size);
+        }
+        if (other.size < other.count) {
+            target = Math.min(target, other.size);
+        }
+        for (int i = 0; i < target; i++) {
+            // The chance the next value comes from this sample is proportional to its remaining unsampled values
+            final boolean fromMine = nextRandom(mineRemaining + theirsRemaining) < mineRemaining;
+            if (fromMine) {
+                values[i] = draw(mine, mineTaken++);
+                mineRemaining--;
+            } else {
+                values[i] = draw(theirs, theirsTaken++);
+                theirsRemaining--;
+            }
+        }
+        size   = target;
+        count += other.count;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Partial Fisher-Yates shuffle: pick a random not yet drawn value.
+     */
+    private double draw(final double[] source, final int drawn) {
+        final int index = drawn + (int) nextRandom(source.length - drawn);
+        final double value = source[index];
+        source[index] = source[drawn];
+        source[drawn] = value;
+        return value;
+    }
+
+    // ------------------------------------------
+
+    public int getCapacity() {
+        return values.length;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of values in the sample.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of values the sample was taken from.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    // ------------------------------------------
+
+    public double getValue(final int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " is not in the range [0, " + size + ")");
+        }
+        return values[index];
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return A copy of the values in the sample (in no particular order).
+     */
+    public double[] getValues() {
+        return Arrays.copyOf(values, size);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        final int capacity = in.readInt();
+        if (capacity < 1) {
+            throw new IOException("Invalid capacity " + capacity);
+        }
+        final int newSize = in.readInt();
+        if (newSize < 0 || newSize > capacity) {
+            throw new IOException("Invalid size " + newSize + " for capacity " + capacity);
+        }
+        if (values.length != capacity) {
+            values = new double[capacity];
+        }
+        size   = newSize;
+        count  = in.readLong();
+        random = in.readLong();
+        if (random == 0) {
+            throw new IOException("Invalid random generator state");
+        }
+        for (int i = 0; i < size; i++) {
+            values[i] = in.readDouble();
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.writeInt(values.length);
+        out.writeInt(size);
+        out.writeLong(count);
+        out.writeLong(random);
+        for (int i = 0; i < size; i++) {
+            out.writeDouble(values[i]);
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public String toString() {
+        return "{"
+            + "\"size\":"       + size           // Number of values in the sample
+            + ",\"capacity\":"  + values.length  // Maximum number of values in the sample
+            + ",\"count\":"     + count          // Number of values the sample was taken from
+            + "}";
+    }
+
+    // ------------------------------------------
+
+}
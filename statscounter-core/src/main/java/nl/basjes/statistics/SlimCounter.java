@@ -0,0 +1,240 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.Counter.M2_OFFSET;
+import static nl.basjes.statistics.Counter.MAX_OFFSET;
+import static nl.basjes.statistics.Counter.MIN_OFFSET;
+import static nl.basjes.statistics.Counter.N_OFFSET;
+import static nl.basjes.statistics.Counter.SUM_OFFSET;
+import static nl.basjes.statistics.Counter.getDouble;
+import static nl.basjes.statistics.Counter.getLong;
+import static nl.basjes.statistics.Counter.putDouble;
+import static nl.basjes.statistics.Counter.putLong;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A {@link Counter} without the local caches: only the five fields that are also serialized are kept
+ * and the derived statistics (mean, variance and standard deviation) are calculated when asked for.
+ * Use this when holding very many counters in memory.
+ * The results are exactly the same as those of a {@link Counter}.
+ */
+public class SlimCounter implements StatisticsCounter, DataSerializable {
+
+    private long   n;   // Count of values
+    private double m2;  // Second moment of values that have been added
+    private double sum; // Total sum
+    private double min; // Lowest value
+    private double max; // Highest value
+
+    // ------------------------------------------
+
+    public SlimCounter() {
+        wipe();
+    }
+
+    // ------------------------------------------
+
+    public SlimCounter(final byte[] bytes) {
+        wipe();
+        increment(bytes);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void wipe() {
+        n    = 0;
+        m2   = Double.NaN;
+        sum  = Double.NaN;
+        min  = Double.NaN;
+        max  = Double.NaN;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void increment(final double newValue) {
+        increment(1, 0.0, newValue, newValue, newValue);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void increment(final byte[] bytes) {
+        increment(
+            getLong  (bytes, N_OFFSET  ),  // Count of values
+            getDouble(bytes, M2_OFFSET ),  // Second moment of values that have been added
+            getDouble(bytes, SUM_OFFSET),  // Total sum
+            getDouble(bytes, MIN_OFFSET),  // Lowest value
+            getDouble(bytes, MAX_OFFSET)); // Highest value
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Creates the combined statistics by merging the current counter with the specified counter.
+     * @param counter The counter that must be included in this counter
+     */
+    public void increment(final SlimCounter counter) {
+        if (counter == null) {
+            return;
+        }
+        increment(counter.n, counter.m2, counter.sum, counter.min, counter.max);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The same as the parallel algorithm in {@link Counter} (without maintaining a cached mean).
+     */
+    private void increment(final long c_n, final double c_m2, final double c_sum, final double c_min, final double c_max) {
+        if (c_n == 0) {
+            return;
+        }
+
+        if (n == 0) {
+            n    = c_n;
+            m2   = c_m2;
+            sum  = c_sum;
+            min  = c_min;
+            max  = c_max;
+            return;
+        }
+
+        min = Math.min(min, c_min);
+        max = Math.max(max, c_max);
+
+        final double oldN = n;
+        final double meanDiff = (c_sum/c_n) - (sum/n);
+
+        sum += c_sum;
+        n   += c_n;
+
+        m2 = m2 + c_m2 + meanDiff * meanDiff * oldN * c_n / n;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public byte[] toBytes() {
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        putLong  (  n, bytes, N_OFFSET  ); // Count of values
+        putDouble( m2, bytes, M2_OFFSET ); // Second moment of values that have been added
+        putDouble(sum, bytes, SUM_OFFSET); // Total sum
+        putDouble(min, bytes, MIN_OFFSET); // Lowest value
+        putDouble(max, bytes, MAX_OFFSET); // Highest value
+        return bytes;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public long getN() {
+        return n;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getSum() {
+        return sum;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getMean() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        return sum/n;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getVariance() {
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n == 1) {
+            return 0d;
+        }
+        return m2 / (n - 1);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getStdDev() {
+        return Math.sqrt(getVariance());
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getMin() {
+        return min;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public double getMax() {
+        return max;
+    }
+
+    // ------------------------------------------
+
+    /** {@inheritDoc} */
+    @Override
+    public void readFields(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        in.readFully(bytes, 0, COUNTER_BYTES_SIZE);
+        wipe();
+        increment(bytes);
+    }
+
+    // ------------------------------------------
+
+    /** {@inheritDoc} */
+    @Override
+    public void write(final DataOutput out) throws IOException {
+        out.write(toBytes());
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public String toString() {
+        return "{"
+            + "\"n\":"    + n   // Count of values
+            + ",\"m2\":"  + m2  // Second moment of values that have been added
+            + ",\"sum\":" + sum // Total sum
+            + ",\"min\":" + min // Lowest value
+            + ",\"max\":" + max // Highest value
+            + "}";
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+/**
+ * The common interface of the counters that aggregate basic statistics (min, max, count, sum, average,
+ * variance and standard deviation) for values of the type 'double'.
+ * All implementations can be merged into and out of the standard 40 byte serialized form of {@link Counter}
+ * so they are interchangeable.
+ */
+public interface StatisticsCounter {
+
+    /**
+     * Reset the counter to the state where no values have been added.
+     */
+    void wipe();
+
+    /**
+     * Include a single value in this counter
+     * @param newValue The value that must be included in this counter
+     */
+    void increment(double newValue);
+
+    /**
+     * Creates the combined statistics by merging the current counter with
+     * the specified counter that is given in the standard serialized form (see {@link Counter#toBytes()}).
+     * @param bytes The counter that must be included in this counter as represented in bytes
+     */
+    void increment(byte[] bytes);
+
+    /**
+     * Get this counter in the standard serialized form of {@link Counter#toBytes()}.
+     * @return The 40 bytes that represent this counter
+     */
+    byte[] toBytes();
+
+    /**
+     * Get the number of increments that have been added
+     * @return
+     */
+    long getN();
+
+    /**
+     * Get the sum of all increments that have been added
+     * @return
+     */
+    double getSum();
+
+    /**
+     * Get the mean (average) of all increments that have been added
+     * @return
+     */
+    double getMean();
+
+    /**
+     * Get the variance of all increments that have been added
+     * @return
+     */
+    double getVariance();
+
+    /**
+     * Get the standard deviation of all increments that have been added
+     * @return
+     */
+    double getStdDev();
+
+    /**
+     * Get the lowest value that has been added
+     * @return
+     */
+    double getMin();
+
+    /**
+     * Get the highest value that has been added
+     * @return
+     */
+    double getMax();
+
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.ingest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * Aggregates (key, value) events from many producer threads into keyed {@link Counter}s without any locking
+ * on the producer side.
+ * 
+ * Each key belongs to one of a small number of shards. A shard has a bounded multi producer ring buffer and
+ * a single aggregator thread that drains it in batches into its own (unshared) map of counters.
+ * Periodically every aggregator publishes an immutable snapshot of its counters.
+ * 
+ * When the buffer of a shard is full the {@link OverloadPolicy} determines if the event is dropped
+ * (see {@link #getDroppedCount()}) or the producer waits.
+ * @param <K> The type of the key
+ */
+public class CounterIngestionPipeline<K> {
+
+    private static final int  DRAIN_BATCH_SIZE = 1024;
+    private static final long IDLE_PARK_NANOS  = TimeUnit.MICROSECONDS.toNanos(100);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+    private final List<Shard>    shards;
+    private final OverloadPolicy overloadPolicy;
+    private final long           snapshotIntervalNanos;
+    private final AtomicLong     dropped = new AtomicLong();
+    private volatile boolean     running = true;
+
+    // ------------------------------------------
+
+    /**
+     * Create and start the pipeline.
+     * @param shardCount             The number of aggregator threads
+     * @param bufferCapacity         The capacity of the buffer of each shard (a power of 2)
+     * @param overloadPolicy         What to do when a buffer is full
+     * @param snapshotIntervalMillis How often the aggregators publish a new snapshot
+     */
+    public CounterIngestionPipeline(final int shardCount, final int bufferCapacity,
+                                    final OverloadPolicy overloadPolicy, final long snapshotIntervalMillis) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least 1 shard (was " + shardCount + ")");
+        }
+        this.overloadPolicy        = overloadPolicy;
+        this.snapshotIntervalNanos = TimeUnit.MILLISECONDS.toNanos(snapshotIntervalMillis);
+
+        shards = new ArrayList<Shard>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new Shard(bufferCapacity, "CounterIngestionPipeline-aggregator-" + i));
+        }
+        for (Shard shard : shards) {
+            shard.thread.start();
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Offer a value for a key. Safe to call from any number of threads.
+     * @param key   The key of the counter
+     * @param value The value that must be included in that counter
+     * @return false if the value was dropped because of overload
+     */
+    public boolean offer(final K key, final double value) {
+        if (!running) {
+            throw new IllegalStateException("The CounterIngestionPipeline has been closed");
+        }
+        final MpscRingBuffer<K> buffer = shardOf(key).buffer;
+        if (buffer.offer(key, value)) {
+            return true;
+        }
+        if (overloadPolicy == OverloadPolicy.DROP) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        while (!buffer.offer(key, value)) {
+            if (!running) {
+                throw new IllegalStateException("The CounterIngestionPipeline has been closed");
+            }
+            LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        }
+        return true;
+    }
+
+    // ------------------------------------------
+
+    private Shard shardOf(final K key) {
+        final int hash = key.hashCode();
+        return shards.get(((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % shards.size());
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the number of values that were dropped because of overload.
+     * @return
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the most recently published counters of all shards.
+     * The result is a new map but the counters in it must not be modified.
+     * @return
+     */
+    public Map<K, Counter> getSnapshot() {
+        final Map<K, Counter> result = new HashMap<K, Counter>();
+        for (Shard shard : shards) {
+            result.putAll(shard.snapshot);
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Stop accepting values, let the aggregators handle everything that was buffered and publish
+     * a final snapshot.
+     * Values that are offered while close is running may be lost, so stop the producers first.
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        running = false;
+        for (Shard shard : shards) {
+            shard.thread.join();
+        }
+    }
+
+    // ------------------------------------------
+
+    private final class Shard implements Runnable, MpscRingBuffer.Handler<K> {
+        private final MpscRingBuffer<K>  buffer;
+        private final Thread             thread;
+        private final Map<K, Counter>    counters = new HashMap<K, Counter>();
+        private volatile Map<K, Counter> snapshot = Collections.emptyMap();
+
+        Shard(final int bufferCapacity, final String name) {
+            buffer = new MpscRingBuffer<K>(bufferCapacity);
+            thread = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void accept(final K key, final double value) {
+            Counter counter = counters.get(key);
+            if (counter == null) {
+                counter = new Counter();
+                counters.put(key, counter);
+            }
+            counter.increment(value);
+        }
+
+        @Override
+        public void run() {
+            long nextSnapshot = System.nanoTime() + snapshotIntervalNanos;
+            while (running || !buffer.isEmpty()) {
+                final int drained = buffer.drain(this, DRAIN_BATCH_SIZE);
+                if (System.nanoTime() - nextSnapshot >= 0) {
+                    publish();
+                    nextSnapshot = System.nanoTime() + snapshotIntervalNanos;
+                }
+                if (drained == 0) {
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                }
+            }
+            publish();
+        }
+
+        private void publish() {
+            final Map<K, Counter> copy = new HashMap<K, Counter>(counters.size() * 2);
+            for (Map.Entry<K, Counter> entry : counters.entrySet()) {
+                copy.put(entry.getKey(), new Counter(entry.getValue().toBytes()));
+            }
+            snapshot = Collections.unmodifiableMap(copy);
+        }
+    }
+
+    // ------------------------------------------
+
+}
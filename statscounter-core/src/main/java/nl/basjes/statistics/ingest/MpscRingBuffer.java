@@ -0,0 +1,114 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.ingest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded lock free ring buffer of (key, value) pairs with many producers and a single consumer
+ * (in the style of the LMAX Disruptor).
+ * A producer claims a sequence number with a CAS, fills the slot and then marks the slot as published.
+ * The consumer takes published slots in sequence order in batches.
+ * @param <K> The type of the key
+ */
+final class MpscRingBuffer<K> {
+
+    /**
+     * Receives the drained pairs.
+     */
+    interface Handler<K> {
+        void accept(K key, double value);
+    }
+
+    private final int             capacity;
+    private final int             mask;
+    private final Object[]        keys;
+    private final double[]        values;
+    private final AtomicLongArray published; // The slot holds (sequence + 1) once the entry with that sequence is available
+    private final AtomicLong      tail = new AtomicLong(); // The next sequence to claim by a producer
+    private volatile long         head = 0;                // The next sequence to take by the consumer
+
+    // ------------------------------------------
+
+    MpscRingBuffer(final int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of 2 (was " + capacity + ")");
+        }
+        this.capacity = capacity;
+        mask          = capacity - 1;
+        keys          = new Object[capacity];
+        values        = new double[capacity];
+        published     = new AtomicLongArray(capacity);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Add a pair if there is room. Safe to call from any number of threads.
+     * @return false if the buffer was full
+     */
+    boolean offer(final K key, final double value) {
+        long sequence;
+        do {
+            sequence = tail.get();
+            if (sequence - head >= capacity) {
+                return false;
+            }
+        } while (!tail.compareAndSet(sequence, sequence + 1));
+
+        final int index = (int) (sequence & mask);
+        keys  [index] = key;
+        values[index] = value;
+        published.lazySet(index, sequence + 1);
+        return true;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Take at most max available pairs. Must only be called from the single consumer thread.
+     * @return The number of pairs that were handled
+     */
+    @SuppressWarnings("unchecked")
+    int drain(final Handler<K> handler, final int max) {
+        long sequence = head;
+        int drained = 0;
+        while (drained < max) {
+            final int index = (int) (sequence & mask);
+            if (published.get(index) != sequence + 1) {
+                break;
+            }
+            final K key = (K) keys[index];
+            keys[index] = null;
+            handler.accept(key, values[index]);
+            sequence++;
+            drained++;
+        }
+        head = sequence; // Frees the slots for the producers
+        return drained;
+    }
+
+    // ------------------------------------------
+
+    boolean isEmpty() {
+        return tail.get() == head;
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,27 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.ingest;
+
+/**
+ * What to do when a value is offered while the buffer of its aggregator is full.
+ */
+public enum OverloadPolicy {
+    /** Throw the value away (and count it as dropped). The producer never waits. */
+    DROP,
+    /** Wait until the aggregator has made room. */
+    BLOCK
+}
@@ -0,0 +1,252 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.io.CounterBlockWriter.DOUBLE_COLUMNS;
+import static nl.basjes.statistics.io.CounterBlockWriter.FOOTER_SIZE;
+import static nl.basjes.statistics.io.CounterBlockWriter.INDEX_ENTRY_SIZE;
+import static nl.basjes.statistics.io.CounterBlockWriter.MAGIC;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * Random access reader for the files written by {@link CounterBlockWriter}.
+ * Only the index is read when opening, each block is read and decoded on demand into reused column arrays.
+ * A block can be merged into a Counter without creating a Counter instance per record.
+ * An instance is not thread safe.
+ */
+public class CounterBlockReader implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel      channel;
+    private final long[]           blockOffsets;
+    private final int[]            blockRecords;
+    private final long             indexOffset;
+    private final long             totalRecords;
+
+    private byte[]                 blockBytes = new byte[0];
+    private long[]                 n          = new long[0];
+    private final long[][]         columns    = new long[DOUBLE_COLUMNS][0];
+    private final byte[]           counterBytes  = new byte[COUNTER_BYTES_SIZE];
+    private final ByteBuffer       counterFields = ByteBuffer.wrap(counterBytes);
+
+    // ------------------------------------------
+
+    public CounterBlockReader(final File input) throws IOException {
+        file    = new RandomAccessFile(input, "r");
+        channel = file.getChannel();
+        try {
+            final long size = channel.size();
+            if (size < 4 + FOOTER_SIZE) {
+                throw new IOException("The file " + input + " is too small to be a counter block file");
+            }
+            final ByteBuffer footer = read(size - FOOTER_SIZE, FOOTER_SIZE);
+            final int blocks = footer.getInt();
+            indexOffset      = footer.getLong();
+            if (read(0, 4).getInt() != MAGIC || footer.getInt() != MAGIC ||
+                blocks < 0 || indexOffset + (long) blocks * INDEX_ENTRY_SIZE + FOOTER_SIZE != size) {
+                throw new IOException("The file " + input + " is not a valid counter block file");
+            }
+
+            blockOffsets = new long[blocks];
+            blockRecords = new int[blocks];
+            final ByteBuffer index = read(indexOffset, blocks * INDEX_ENTRY_SIZE);
+            long records = 0;
+            for (int block = 0; block < blocks; block++) {
+                blockOffsets[block] = index.getLong();
+                blockRecords[block] = index.getInt();
+                records += blockRecords[block];
+            }
+            totalRecords = records;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    // ------------------------------------------
+
+    private ByteBuffer read(final long offset, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        readFully(offset, buffer);
+        buffer.flip();
+        return buffer;
+    }
+
+    // ------------------------------------------
+
+    private void readFully(final long offset, final ByteBuffer buffer) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    // ------------------------------------------
+
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    // ------------------------------------------
+
+    public int getRecordCount(final int block) {
+        return blockRecords[block];
+    }
+
+    // ------------------------------------------
+
+    public long getRecordCount() {
+        return totalRecords;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Read and decode all columns of a block into the column arrays.
+     * @return The number of records in the block.
+     */
+    private int decodeBlock(final int block) throws IOException {
+        final long start = blockOffsets[block];
+        final long end   = block + 1 < blockOffsets.length ? blockOffsets[block + 1] : indexOffset;
+        final int length = (int) (end - start);
+        if (blockBytes.length < length) {
+            blockBytes = new byte[length];
+        }
+        readFully(start, ByteBuffer.wrap(blockBytes, 0, length));
+
+        final ByteBuffer header = ByteBuffer.wrap(blockBytes, 0, length);
+        final int records = header.getInt();
+        if (records != blockRecords[block]) {
+            throw new IOException("Block " + block + " is corrupt: it has " + records +
+                                  " records instead of " + blockRecords[block]);
+        }
+        if (n.length < records) {
+            n = new long[records];
+            for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+                columns[column] = new long[records];
+            }
+        }
+
+        final int nLength = header.getInt();
+        int position = 8;
+        long value   = 0;
+        for (int i = 0; i < records; i++) {
+            long zigzag = 0;
+            int  shift  = 0;
+            byte b;
+            do {
+                b = blockBytes[position++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += (zigzag >>> 1) ^ -(zigzag & 1);
+            n[i] = value;
+        }
+        if (position != 8 + nLength) {
+            throw new IOException("Block " + block + " is corrupt: the n column has an invalid length");
+        }
+
+        for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+            final int columnLength = header.getInt(position);
+            position += 4;
+            GorillaEncoder.decode(blockBytes, position, columns[column], records);
+            position += columnLength;
+        }
+        return records;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Decode a block into records in the serialized form (i.e. {@link Counter#toBytes()}) in bytes[offset ...].
+     * @return The number of records written into bytes.
+     */
+    public int readBlock(final int block, final byte[] bytes, final int offset) throws IOException {
+        final int records = decodeBlock(block);
+        final ByteBuffer fields = ByteBuffer.wrap(bytes);
+        int position = offset;
+        for (int i = 0; i < records; i++) {
+            fields.putLong(position, n[i]);
+            for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+                fields.putLong(position + 8 + 8 * column, columns[column][i]);
+            }
+            position += COUNTER_BYTES_SIZE;
+        }
+        return records;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge all records of a single block into the result.
+     */
+    public void mergeBlock(final int block, final Counter result) throws IOException {
+        final int records = decodeBlock(block);
+        for (int i = 0; i < records; i++) {
+            counterFields.putLong(0, n[i]);
+            for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+                counterFields.putLong(8 + 8 * column, columns[column][i]);
+            }
+            result.increment(counterBytes, 0);
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge all records in the blocks [fromBlock, toBlock) into the result.
+     */
+    public void merge(final int fromBlock, final int toBlock, final Counter result) throws IOException {
+        for (int block = fromBlock; block < toBlock; block++) {
+            mergeBlock(block, result);
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return A new Counter that is the merge of all records in the file.
+     */
+    public Counter merge() throws IOException {
+        final Counter result = new Counter();
+        merge(0, getBlockCount(), result);
+        return result;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // ------------------------------------------
+
+}
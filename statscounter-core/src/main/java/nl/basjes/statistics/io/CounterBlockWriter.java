@@ -0,0 +1,205 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * Writes (large) sequences of counters in a columnar compressed block file.
+ * The counters are grouped in blocks of a fixed number of records, in each block all fields are stored per column:
+ * - n is stored as zigzag varint encoded deltas (so a series of similar counts takes 1 byte per record).
+ * - m2, sum, min and max are each compressed with the XOR scheme of the Gorilla paper.
+ * After the last block an index with the offset and record count of every block is written followed
+ * by a fixed size footer so a {@link CounterBlockReader} can randomly access any block.
+ * <pre>
+ * file   = MAGIC block* index footer
+ * block  = records(int) nLength(int) n-column (columnLength(int) column){4}
+ * index  = (offset(long) records(int))*
+ * footer = blocks(int) indexOffset(long) MAGIC
+ * </pre>
+ */
+public class CounterBlockWriter implements Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    static final int   MAGIC            = 0x53434231; // "SCB1"
+    static final int   FOOTER_SIZE      = 4 + 8 + 4;
+    static final int   INDEX_ENTRY_SIZE = 8 + 4;
+    static final int   DOUBLE_COLUMNS   = 4;
+
+    private final DataOutputStream out;
+    private final int              blockSize;
+    private long                   position;
+
+    private final long[]           n;
+    private final long[][]         columns;
+    private int                    records = 0;
+
+    private final byte[]           counterBytes  = new byte[COUNTER_BYTES_SIZE];
+    private final ByteBuffer       counterFields = ByteBuffer.wrap(counterBytes);
+    private final GorillaEncoder   encoder       = new GorillaEncoder();
+    private byte[]                 nColumn       = new byte[1024];
+
+    private final List<Long>       blockOffsets = new ArrayList<>();
+    private final List<Integer>    blockRecords = new ArrayList<>();
+    private boolean                closed = false;
+
+    // ------------------------------------------
+
+    public CounterBlockWriter(final OutputStream out) throws IOException {
+        this(out, DEFAULT_BLOCK_SIZE);
+    }
+
+    // ------------------------------------------
+
+    public CounterBlockWriter(final OutputStream out, final int blockSize) throws IOException {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The blockSize must be at least 1 (was " + blockSize + ")");
+        }
+        this.out       = new DataOutputStream(out);
+        this.blockSize = blockSize;
+        this.n         = new long[blockSize];
+        this.columns   = new long[DOUBLE_COLUMNS][blockSize];
+        this.out.writeInt(MAGIC);
+        position = 4;
+    }
+
+    // ------------------------------------------
+
+    public void write(final Counter counter) throws IOException {
+        counter.toBytes(counterBytes, 0);
+        write(counterBytes, 0);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Append a single counter in the serialized form (i.e. {@link Counter#toBytes()}).
+     */
+    public void write(final byte[] bytes, final int offset) throws IOException {
+        if (closed) {
+            throw new IOException("The CounterBlockWriter has been closed");
+        }
+        final ByteBuffer fields = bytes == counterBytes ? counterFields : ByteBuffer.wrap(bytes);
+        n[records] = fields.getLong(offset);
+        for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+            columns[column][records] = fields.getLong(offset + 8 + 8 * column);
+        }
+        records++;
+        if (records == blockSize) {
+            writeBlock();
+        }
+    }
+
+    // ------------------------------------------
+
+    private void writeBlock() throws IOException {
+        if (records == 0) {
+            return;
+        }
+        blockOffsets.add(position);
+        blockRecords.add(records);
+
+        int nLength  = 0;
+        long previous = 0;
+        for (int i = 0; i < records; i++) {
+            if (nLength + 10 > nColumn.length) {
+                nColumn = Arrays.copyOf(nColumn, nColumn.length * 2);
+            }
+            final long delta = n[i] - previous;
+            previous = n[i];
+            nLength = putVarLong((delta << 1) ^ (delta >> 63), nColumn, nLength);
+        }
+        out.writeInt(records);
+        out.writeInt(nLength);
+        out.write(nColumn, 0, nLength);
+        position += 4 + 4 + nLength;
+
+        for (int column = 0; column < DOUBLE_COLUMNS; column++) {
+            encoder.reset();
+            final long[] values = columns[column];
+            for (int i = 0; i < records; i++) {
+                encoder.add(values[i]);
+            }
+            final int length = encoder.getLength();
+            out.writeInt(length);
+            out.write(encoder.getBytes(), 0, length);
+            position += 4 + length;
+        }
+        records = 0;
+    }
+
+    // ------------------------------------------
+
+    private static int putVarLong(final long value, final byte[] bytes, final int offset) {
+        long remaining = value;
+        int  position  = offset;
+        while ((remaining & ~0x7FL) != 0) {
+            bytes[position++] = (byte) ((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        bytes[position++] = (byte) remaining;
+        return position;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of bytes written so far.
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Writes the last (partial) block, the index and the footer and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        writeBlock();
+        final long indexOffset = position;
+        for (int block = 0; block < blockOffsets.size(); block++) {
+            out.writeLong(blockOffsets.get(block));
+            out.writeInt(blockRecords.get(block));
+        }
+        out.writeInt(blockOffsets.size());
+        out.writeLong(indexOffset);
+        out.writeInt(MAGIC);
+        position += (long) INDEX_ENTRY_SIZE * blockOffsets.size() + FOOTER_SIZE;
+        closed = true;
+        out.close();
+    }
+
+    // ------------------------------------------
+
+}
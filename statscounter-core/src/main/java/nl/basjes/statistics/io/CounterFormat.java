@@ -0,0 +1,51 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+/**
+ * The formats in which keyed counters can be exported and imported in bulk.
+ */
+public enum CounterFormat {
+    /**
+     * One JSON object per line in the same form as {@link nl.basjes.statistics.Counter#toString()}
+     * with an additional "key" field: {"key":"foo","n":3,"m2":2.0,"sum":6.0,"min":1.0,"max":3.0}
+     * Because JSON has no NaN or Infinity those values are written as the strings "NaN", "Infinity" and "-Infinity"
+     * (an empty counter is {"key":"foo","n":0,"m2":"NaN","sum":"NaN","min":"NaN","max":"NaN"}).
+     * When reading, these strings and null (read as NaN) are accepted.
+     */
+    JSON_LINES,
+
+    /**
+     * A header line "key,n,m2,sum,min,max" followed by one line per counter.
+     * A missing (null) key is an empty field, an empty key is "".
+     * The non finite values are written as NaN, Infinity and -Infinity.
+     * Keys must not contain line breaks.
+     */
+    CSV,
+
+    /**
+     * Per counter: the length of the UTF-8 key as an int (-1 for a null key), the UTF-8 key
+     * and the 40 bytes of {@link nl.basjes.statistics.Counter#toBytes()}.
+     * The key is at most {@link #MAX_BINARY_KEY_LENGTH} bytes.
+     */
+    BINARY;
+
+    /**
+     * The maximum length in bytes of the UTF-8 key in the BINARY format.
+     */
+    public static final int MAX_BINARY_KEY_LENGTH = 65535;
+}
@@ -0,0 +1,639 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.io.CounterFormat.MAX_BINARY_KEY_LENGTH;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * Reads keyed counters in bulk that were written by a {@link CounterWriter} in one of the {@link CounterFormat}s.
+ * The records are parsed directly from a reused buffer into a Counter and a reused key buffer so reading a
+ * record does not allocate anything (except for doubles in a text format that have too many digits for
+ * the exact fast path).
+ * <pre>
+ *   final Counter counter = new Counter();
+ *   while (reader.next(counter)) {
+ *       ... reader.getKey() ... counter ...
+ *   }
+ * </pre>
+ */
+public class CounterReader implements Closeable {
+
+    private static final int    BUFFER_SIZE         = 64 * 1024;
+    private static final int    MAX_FAST_DIGITS     = 15;
+    private static final int    MAX_FAST_EXPONENT   = 22;
+    private static final String CSV_HEADER          = "key,n,m2,sum,min,max";
+
+    // All powers of 10 that are exactly representable as a double
+    private static final double[] POWERS_OF_TEN = new double[MAX_FAST_EXPONENT + 1];
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private final InputStream   in;
+    private final CounterFormat format;
+    private byte[]              buffer   = new byte[BUFFER_SIZE];
+    private int                 position = 0;
+    private int                 limit    = 0;
+    private boolean             endOfInput = false;
+
+    private final StringBuilder key    = new StringBuilder();
+    private boolean             hasKey = false;
+    private boolean             firstLine = true;
+
+    private final byte[]        counterBytes  = new byte[COUNTER_BYTES_SIZE];
+    private final ByteBuffer    counterFields = ByteBuffer.wrap(counterBytes);
+
+    // The line that is being parsed
+    private int cursor;
+    private int end;
+    private int tokenEnd; // The end of the most recent CSV field
+
+    // ------------------------------------------
+
+    public CounterReader(final InputStream in, final CounterFormat format) {
+        this.in     = in;
+        this.format = format;
+    }
+
+    // ------------------------------------------
+
+    public CounterReader(final ReadableByteChannel channel, final CounterFormat format) {
+        this(Channels.newInputStream(channel), format);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Read the next record.
+     * @param counter The counter that receives the values of the record (it is overwritten)
+     * @return false if there are no more records
+     * @throws IOException
+     */
+    public boolean next(final Counter counter) throws IOException {
+        final boolean found;
+        switch (format) {
+            case JSON_LINES:
+                found = nextLine() && parseJson();
+                break;
+            case CSV:
+                found = nextCsvLine() && parseCsv();
+                break;
+            case BINARY:
+            default:
+                found = readBinary();
+                break;
+        }
+        if (found) {
+            counter.setBytes(counterBytes);
+        }
+        return found;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the key of the most recently read record.
+     * The returned value is reused for the next record so copy it (toString()) if it must be retained.
+     * @return The key or null if the record had no key
+     */
+    public CharSequence getKey() {
+        return hasKey ? key : null;
+    }
+
+    // ------------------------------------------
+    // Buffer handling
+
+    /**
+     * Make sure at least the specified number of bytes are available from position on.
+     * @return false if the input ended before that
+     */
+    private boolean fill(final int bytes) throws IOException {
+        if (limit - position >= bytes) {
+            return true;
+        }
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit   -= position;
+            position = 0;
+        }
+        if (bytes > buffer.length) {
+            final byte[] bigger = new byte[Math.max(bytes, buffer.length * 2)];
+            System.arraycopy(buffer, 0, bigger, 0, limit);
+            buffer = bigger;
+        }
+        while (limit < bytes && !endOfInput) {
+            final int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                endOfInput = true;
+            } else {
+                limit += read;
+            }
+        }
+        return limit >= bytes;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Find the next non empty line and set cursor/end to it (end excludes the line terminator).
+     * @return false if there are no more lines
+     */
+    private boolean nextLine() throws IOException {
+        while (true) {
+            int scan = position;
+            while (true) {
+                while (scan < limit && buffer[scan] != '\n') {
+                    scan++;
+                }
+                if (scan < limit || endOfInput) {
+                    break;
+                }
+                // Read more; this may move the unread bytes to the start of the (possibly bigger) buffer.
+                final int offset = scan - position;
+                fill(limit - position + 1);
+                scan = position + offset;
+            }
+            if (position >= limit) {
+                return false;
+            }
+            cursor   = position;
+            end      = scan;
+            position = scan < limit ? scan + 1 : scan;
+            if (end > cursor && buffer[end - 1] == '\r') {
+                end--;
+            }
+            if (end > cursor) {
+                return true;
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    private boolean nextCsvLine() throws IOException {
+        if (!nextLine()) {
+            return false;
+        }
+        if (firstLine) {
+            firstLine = false;
+            if (lineEquals(CSV_HEADER)) {
+                return nextLine();
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------
+
+    private boolean lineEquals(final String value) {
+        if (end - cursor != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (buffer[cursor + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------
+    // Binary
+
+    private boolean readBinary() throws IOException {
+        if (!fill(4)) {
+            if (limit > position) {
+                throw new EOFException("Truncated record");
+            }
+            return false;
+        }
+        final int keyLength = ((buffer[position    ] & 0xFF) << 24)
+                            | ((buffer[position + 1] & 0xFF) << 16)
+                            | ((buffer[position + 2] & 0xFF) <<  8)
+                            | ((buffer[position + 3] & 0xFF)      );
+        if (keyLength < -1 || keyLength > MAX_BINARY_KEY_LENGTH) {
+            throw new IOException("Corrupt record: invalid key length " + keyLength);
+        }
+        final int recordLength = 4 + Math.max(0, keyLength) + COUNTER_BYTES_SIZE;
+        if (!fill(recordLength)) {
+            throw new EOFException("Truncated record");
+        }
+        position += 4;
+        hasKey = keyLength >= 0;
+        key.setLength(0);
+        if (hasKey) {
+            decodeUtf8(position, position + keyLength);
+            position += keyLength;
+        }
+        System.arraycopy(buffer, position, counterBytes, 0, COUNTER_BYTES_SIZE);
+        position += COUNTER_BYTES_SIZE;
+        return true;
+    }
+
+    // ------------------------------------------
+
+    private void decodeUtf8(final int from, final int to) throws IOException {
+        int i = from;
+        while (i < to) {
+            final int b = buffer[i] & 0xFF;
+            if (b < 0x80) {
+                key.append((char) b);
+                i += 1;
+            } else if ((b & 0xE0) == 0xC0 && i + 1 < to) {
+                key.append((char) (((b & 0x1F) << 6) | (buffer[i + 1] & 0x3F)));
+                i += 2;
+            } else if ((b & 0xF0) == 0xE0 && i + 2 < to) {
+                key.append((char) (((b & 0x0F) << 12) | ((buffer[i + 1] & 0x3F) << 6) | (buffer[i + 2] & 0x3F)));
+                i += 3;
+            } else if ((b & 0xF8) == 0xF0 && i + 3 < to) {
+                final int codePoint = ((b & 0x07) << 18) | ((buffer[i + 1] & 0x3F) << 12)
+                                    | ((buffer[i + 2] & 0x3F) << 6) | (buffer[i + 3] & 0x3F);
+                key.append(Character.highSurrogate(codePoint));
+                key.append(Character.lowSurrogate(codePoint));
+                i += 4;
+            } else {
+                throw new IOException("Invalid UTF-8 in key");
+            }
+        }
+    }
+
+    // ------------------------------------------
+    // JSON
+
+    private boolean parseJson() throws IOException {
+        hasKey = false;
+        key.setLength(0);
+        counterFields.putLong(0, 0);
+        for (int offset = 8; offset < COUNTER_BYTES_SIZE; offset += 8) {
+            counterFields.putDouble(offset, Double.NaN);
+        }
+
+        skipSpaces();
+        expect('{');
+        skipSpaces();
+        if (peek() == '}') {
+            return true;
+        }
+        while (true) {
+            skipSpaces();
+            expect('"');
+            final int nameStart = cursor;
+            while (cursor < end && buffer[cursor] != '"') {
+                cursor++;
+            }
+            final int nameEnd = cursor;
+            expect('"');
+            skipSpaces();
+            expect(':');
+            skipSpaces();
+
+            if (nameIs(nameStart, nameEnd, "key")) {
+                parseJsonKey();
+            } else if (peek() == '"') { // "NaN", "Infinity" or "-Infinity"
+                cursor++;
+                final int tokenStart = cursor;
+                while (cursor < end && buffer[cursor] != '"') {
+                    cursor++;
+                }
+                setField(nameStart, nameEnd, tokenStart, cursor);
+                expect('"');
+            } else {
+                final int tokenStart = cursor;
+                while (cursor < end && buffer[cursor] != ',' && buffer[cursor] != '}' && buffer[cursor] != ' ') {
+                    cursor++;
+                }
+                setField(nameStart, nameEnd, tokenStart, cursor);
+            }
+
+            skipSpaces();
+            final byte separator = peek();
+            cursor++;
+            if (separator == '}') {
+                return true;
+            }
+            if (separator != ',') {
+                throw new IOException("Malformed JSON counter: expected ',' or '}'");
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    private void parseJsonKey() throws IOException {
+        if (peek() != '"') {
+            if (end - cursor < 4 || !nameIs(cursor, cursor + 4, "null")) {
+                throw new IOException("Malformed JSON counter: the key must be a string or null");
+            }
+            cursor += 4;
+            return;
+        }
+        cursor++;
+        hasKey = true;
+        int runStart = cursor;
+        while (true) {
+            if (cursor >= end) {
+                throw new IOException("Malformed JSON counter: unterminated key");
+            }
+            final byte b = buffer[cursor];
+            if (b == '"') {
+                decodeUtf8(runStart, cursor);
+                cursor++;
+                return;
+            }
+            if (b != '\\') {
+                cursor++;
+                continue;
+            }
+            decodeUtf8(runStart, cursor);
+            if (cursor + 1 >= end) {
+                throw new IOException("Malformed JSON counter: truncated escape in key");
+            }
+            final byte escaped = buffer[cursor + 1];
+            cursor += 2;
+            switch (escaped) {
+                case '"':  key.append('"');  break;
+                case '\\': key.append('\\'); break;
+                case '/':  key.append('/');  break;
+                case 'b':  key.append('\b'); break;
+                case 'f':  key.append('\f'); break;
+                case 'n':  key.append('\n'); break;
+                case 'r':  key.append('\r'); break;
+                case 't':  key.append('\t'); break;
+                case 'u':
+                    if (cursor + 4 > end) {
+                        throw new IOException("Malformed JSON counter: truncated \\u escape in key");
+                    }
+                    int c = 0;
+                    for (int i = 0; i < 4; i++) {
+                        final int digit = Character.digit(buffer[cursor++], 16);
+                        if (digit < 0) {
+                            throw new IOException("Malformed JSON counter: invalid \\u escape in key");
+                        }
+                        c = (c << 4) | digit;
+                    }
+                    key.append((char) c);
+                    break;
+                default:
+                    throw new IOException("Malformed JSON counter: invalid escape '\\" + (char) escaped + "' in key");
+            }
+            runStart = cursor;
+        }
+    }
+
+    // ------------------------------------------
+
+    private boolean nameIs(final int from, final int to, final String name) {
+        if (to - from != name.length()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (buffer[from + i] != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------
+
+    private void setField(final int nameStart, final int nameEnd, final int tokenStart, final int tokenEnd) throws IOException {
+        if (nameIs(nameStart, nameEnd, "n")) {
+            counterFields.putLong(0, parseLong(tokenStart, tokenEnd));
+        } else if (nameIs(nameStart, nameEnd, "m2")) {
+            counterFields.putDouble(8, parseJsonDouble(tokenStart, tokenEnd));
+        } else if (nameIs(nameStart, nameEnd, "sum")) {
+            counterFields.putDouble(16, parseJsonDouble(tokenStart, tokenEnd));
+        } else if (nameIs(nameStart, nameEnd, "min")) {
+            counterFields.putDouble(24, parseJsonDouble(tokenStart, tokenEnd));
+        } else if (nameIs(nameStart, nameEnd, "max")) {
+            counterFields.putDouble(32, parseJsonDouble(tokenStart, tokenEnd));
+        }
+        // Unknown fields are ignored
+    }
+
+    // ------------------------------------------
+
+    private double parseJsonDouble(final int from, final int to) throws IOException {
+        if (nameIs(from, to, "null")) {
+            return Double.NaN;
+        }
+        return parseDouble(from, to);
+    }
+
+    // ------------------------------------------
+
+    private void skipSpaces() {
+        while (cursor < end && (buffer[cursor] == ' ' || buffer[cursor] == '\t')) {
+            cursor++;
+        }
+    }
+
+    // ------------------------------------------
+
+    private byte peek() throws IOException {
+        if (cursor >= end) {
+            throw new IOException("Unexpected end of line");
+        }
+        return buffer[cursor];
+    }
+
+    // ------------------------------------------
+
+    private void expect(final char expected) throws IOException {
+        if (peek() != expected) {
+            throw new IOException("Malformed counter record: expected '" + expected + "'");
+        }
+        cursor++;
+    }
+
+    // ------------------------------------------
+    // CSV
+
+    private boolean parseCsv() throws IOException {
+        key.setLength(0);
+        if (cursor < end && buffer[cursor] == '"') {
+            hasKey = true;
+            cursor++;
+            int runStart = cursor;
+            while (true) {
+                if (cursor >= end) {
+                    throw new IOException("Malformed CSV counter: unterminated key");
+                }
+                if (buffer[cursor] == '"') {
+                    decodeUtf8(runStart, cursor);
+                    cursor++;
+                    if (cursor < end && buffer[cursor] == '"') { // An escaped quote
+                        runStart = cursor;
+                        cursor++;
+                        continue;
+                    }
+                    break;
+                }
+                cursor++;
+            }
+        } else {
+            final int keyStart = cursor;
+            while (cursor < end && buffer[cursor] != ',') {
+                cursor++;
+            }
+            hasKey = cursor > keyStart;
+            decodeUtf8(keyStart, cursor);
+        }
+
+        counterFields.putLong  ( 0, parseLong  (nextCsvField(), tokenEnd));
+        counterFields.putDouble( 8, parseDouble(nextCsvField(), tokenEnd));
+        counterFields.putDouble(16, parseDouble(nextCsvField(), tokenEnd));
+        counterFields.putDouble(24, parseDouble(nextCsvField(), tokenEnd));
+        counterFields.putDouble(32, parseDouble(nextCsvField(), tokenEnd));
+        return true;
+    }
+
+    // ------------------------------------------
+
+    private int nextCsvField() throws IOException {
+        expect(',');
+        final int tokenStart = cursor;
+        while (cursor < end && buffer[cursor] != ',') {
+            cursor++;
+        }
+        tokenEnd = cursor;
+        return tokenStart;
+    }
+
+    // ------------------------------------------
+    // Numbers
+
+    private long parseLong(final int from, final int to) throws IOException {
+        if (from >= to) {
+            throw new IOException("Missing number");
+        }
+        int i = from;
+        final boolean negative = buffer[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i >= to || to - i > 18) { // Possibly too big for the fast path
+            return Long.parseLong(new String(buffer, from, to - from, "US-ASCII"));
+        }
+        long value = 0;
+        for (; i < to; i++) {
+            final int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new IOException("Invalid number");
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Parses a double. Values with at most 15 significant digits and a small exponent are calculated exactly
+     * from the digits (the classic Clinger fast path); everything else goes through Double.parseDouble.
+     */
+    private double parseDouble(final int from, final int to) throws IOException {
+        if (from >= to) {
+            throw new IOException("Missing number");
+        }
+        int i = from;
+        final boolean negative = buffer[i] == '-';
+        if (negative || buffer[i] == '+') {
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean fast = i < to;
+        boolean seenDot = false;
+        for (; i < to && fast; i++) {
+            final byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                if (mantissa == 0 && b == '0') {
+                    if (seenDot) {
+                        exponent--;
+                    }
+                    continue; // Leading zeros are not significant
+                }
+                if (++digits > MAX_FAST_DIGITS) {
+                    fast = false;
+                    break;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (seenDot) {
+                    exponent--;
+                }
+            } else if (b == '.' && !seenDot) {
+                seenDot = true;
+            } else if (b == 'E' || b == 'e') {
+                final int exponentStart = i + 1;
+                if (exponentStart >= to || to - exponentStart > 4) {
+                    fast = false;
+                    break;
+                }
+                exponent += (int) parseLong(exponentStart, to);
+                i = to;
+                break;
+            } else {
+                fast = false; // NaN, Infinity or something unexpected
+            }
+        }
+
+        if (fast && Math.abs(exponent) <= MAX_FAST_EXPONENT) {
+            final double value;
+            if (mantissa == 0) {
+                value = 0.0;
+            } else if (exponent < 0) {
+                value = mantissa / POWERS_OF_TEN[-exponent];
+            } else {
+                value = mantissa * POWERS_OF_TEN[exponent];
+            }
+            return negative ? -value : value;
+        }
+
+        try {
+            return Double.parseDouble(new String(buffer, from, to - from, "US-ASCII"));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number: " + e.getMessage());
+        }
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,384 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.io.CounterFormat.MAX_BINARY_KEY_LENGTH;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * Writes keyed counters in bulk in one of the {@link CounterFormat}s.
+ * Everything is encoded directly into a reused buffer so writing a record does not allocate anything.
+ * All doubles are written as the shortest decimal that reads back as exactly the same value
+ * (only for the rare double where that cannot be proven quickly Double.toString is used).
+ */
+public class CounterWriter implements Closeable, Flushable {
+
+    private static final int    BUFFER_SIZE       = 64 * 1024;
+    private static final int    MAX_NUMBER_LENGTH = 32;
+    private static final double MAX_EXACT_LONG    = 9007199254740992.0; // 2^53
+
+    private static final byte[] CSV_HEADER = ascii("key,n,m2,sum,min,max\n");
+    private static final byte[] JSON_KEY   = ascii("{\"key\":\"");
+    private static final byte[] JSON_N     = ascii("\"n\":");
+    private static final byte[] JSON_M2    = ascii(",\"m2\":");
+    private static final byte[] JSON_SUM   = ascii(",\"sum\":");
+    private static final byte[] JSON_MIN   = ascii(",\"min\":");
+    private static final byte[] JSON_MAX   = ascii(",\"max\":");
+    private static final byte[] NAN        = ascii("NaN");
+    private static final byte[] INFINITY   = ascii("Infinity");
+    private static final byte[] HEX        = ascii("0123456789abcdef");
+
+    private final OutputStream  out;
+    private final CounterFormat format;
+    private final byte[]        buffer        = new byte[BUFFER_SIZE];
+    private int                 position      = 0;
+    private final byte[]        counterBytes  = new byte[COUNTER_BYTES_SIZE];
+    private final ByteBuffer    counterFields = ByteBuffer.wrap(counterBytes);
+    private boolean             headerWritten = false;
+
+    // ------------------------------------------
+
+    public CounterWriter(final OutputStream out, final CounterFormat format) {
+        this.out    = out;
+        this.format = format;
+    }
+
+    // ------------------------------------------
+
+    public CounterWriter(final WritableByteChannel channel, final CounterFormat format) {
+        this(Channels.newOutputStream(channel), format);
+    }
+
+    // ------------------------------------------
+
+    private static byte[] ascii(final String value) {
+        final byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Write a single counter.
+     * @param key     The key of the counter (may be null)
+     * @param counter The counter
+     * @throws IOException
+     */
+    public void write(final CharSequence key, final Counter counter) throws IOException {
+        counter.toBytes(counterBytes, 0);
+        switch (format) {
+            case JSON_LINES:
+                writeJson(key);
+                break;
+            case CSV:
+                writeCsv(key);
+                break;
+            case BINARY:
+            default:
+                writeBinary(key);
+                break;
+        }
+    }
+
+    // ------------------------------------------
+
+    private void writeJson(final CharSequence key) throws IOException {
+        if (key == null) {
+            putByte('{');
+        } else {
+            putBytes(JSON_KEY);
+            for (int i = 0; i < key.length(); i++) {
+                final char c = key.charAt(i);
+                if (c == '"' || c == '\\') {
+                    putByte('\\');
+                    putByte(c);
+                } else if (c < 0x20) {
+                    ensure(6);
+                    buffer[position++] = '\\';
+                    buffer[position++] = 'u';
+                    buffer[position++] = '0';
+                    buffer[position++] = '0';
+                    buffer[position++] = HEX[c >> 4];
+                    buffer[position++] = HEX[c & 0xF];
+                } else {
+                    i = putChar(key, i);
+                }
+            }
+            putByte('"');
+            putByte(',');
+        }
+        putBytes(JSON_N);   putLong      (counterFields.getLong  (0));
+        putBytes(JSON_M2);  putJsonDouble(counterFields.getDouble(8));
+        putBytes(JSON_SUM); putJsonDouble(counterFields.getDouble(16));
+        putBytes(JSON_MIN); putJsonDouble(counterFields.getDouble(24));
+        putBytes(JSON_MAX); putJsonDouble(counterFields.getDouble(32));
+        putByte('}');
+        putByte('\n');
+    }
+
+    // ------------------------------------------
+
+    private void writeCsv(final CharSequence key) throws IOException {
+        if (!headerWritten) {
+            putBytes(CSV_HEADER);
+            headerWritten = true;
+        }
+        if (key != null) {
+            putByte('"');
+            for (int i = 0; i < key.length(); i++) {
+                final char c = key.charAt(i);
+                if (c == '"') {
+                    putByte('"');
+                    putByte('"');
+                } else {
+                    i = putChar(key, i);
+                }
+            }
+            putByte('"');
+        }
+        putByte(','); putLong  (counterFields.getLong  (0));
+        putByte(','); putDouble(counterFields.getDouble(8));
+        putByte(','); putDouble(counterFields.getDouble(16));
+        putByte(','); putDouble(counterFields.getDouble(24));
+        putByte(','); putDouble(counterFields.getDouble(32));
+        putByte('\n');
+    }
+
+    // ------------------------------------------
+
+    private void writeBinary(final CharSequence key) throws IOException {
+        if (key == null) {
+            putInt(-1);
+        } else {
+            final int keyLength = utf8Length(key);
+            if (keyLength > MAX_BINARY_KEY_LENGTH) {
+                throw new IOException("The key is " + keyLength + " bytes (the maximum is " + MAX_BINARY_KEY_LENGTH + ")");
+            }
+            putInt(keyLength);
+            for (int i = 0; i < key.length(); i++) {
+                i = putChar(key, i);
+            }
+        }
+        putBytes(counterBytes);
+    }
+
+    // ------------------------------------------
+
+    private static int utf8Length(final CharSequence value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                       && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Writes the character at index as UTF-8 (a surrogate pair is handled as a single code point).
+     * @return The index of the last character that was consumed
+     */
+    private int putChar(final CharSequence value, final int index) throws IOException {
+        ensure(4);
+        final char c = value.charAt(index);
+        if (c < 0x80) {
+            buffer[position++] = (byte) c;
+            return index;
+        }
+        if (c < 0x800) {
+            buffer[position++] = (byte) (0xC0 | (c >> 6));
+            buffer[position++] = (byte) (0x80 | (c & 0x3F));
+            return index;
+        }
+        if (Character.isHighSurrogate(c) && index + 1 < value.length()
+            && Character.isLowSurrogate(value.charAt(index + 1))) {
+            final int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+            buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+            buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+            buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+            return index + 1;
+        }
+        buffer[position++] = (byte) (0xE0 | (c >> 12));
+        buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buffer[position++] = (byte) (0x80 | (c & 0x3F));
+        return index;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * JSON has no NaN or Infinity so those are written as the strings "NaN", "Infinity" and "-Infinity".
+     */
+    private void putJsonDouble(final double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            putByte('"');
+            putDouble(value);
+            putByte('"');
+        } else {
+            putDouble(value);
+        }
+    }
+
+    // ------------------------------------------
+
+    private void putDouble(final double value) throws IOException {
+        if (Double.isNaN(value)) {
+            putBytes(NAN);
+            return;
+        }
+        if (Double.isInfinite(value)) {
+            if (value < 0) {
+                putByte('-');
+            }
+            putBytes(INFINITY);
+            return;
+        }
+        // Fast path: integral values (very common for sum, min and max) are written without allocating.
+        if (value == Math.rint(value) && Math.abs(value) < MAX_EXACT_LONG
+            && !(value == 0 && 1 / value < 0)) { // Not -0.0
+            putLong((long) value);
+            putByte('.');
+            putByte('0');
+            return;
+        }
+        ensure(DoubleFormatter.MAX_LENGTH);
+        final int end = DoubleFormatter.format(value, buffer, position);
+        if (end >= 0) {
+            position = end;
+            return;
+        }
+        // The rare case where the shortest digits could not be proven
+        final String text = Double.toString(value);
+        ensure(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer[position++] = (byte) text.charAt(i);
+        }
+    }
+
+    // ------------------------------------------
+
+    private void putLong(final long value) throws IOException {
+        ensure(MAX_NUMBER_LENGTH);
+        if (value == Long.MIN_VALUE) {
+            putBytes(ascii(Long.toString(value)));
+            return;
+        }
+        long remaining = value;
+        if (remaining < 0) {
+            buffer[position++] = '-';
+            remaining = -remaining;
+        }
+        final int start = position;
+        do {
+            buffer[position++] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        } while (remaining != 0);
+        // The digits were written in reverse
+        for (int left = start, right = position - 1; left < right; left++, right--) {
+            final byte digit = buffer[left];
+            buffer[left]  = buffer[right];
+            buffer[right] = digit;
+        }
+    }
+
+    // ------------------------------------------
+
+    private void putInt(final int value) throws IOException {
+        ensure(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>>  8);
+        buffer[position++] = (byte) (value       );
+    }
+
+    // ------------------------------------------
+
+    private void putByte(final int value) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) value;
+    }
+
+    // ------------------------------------------
+
+    private void putBytes(final byte[] bytes) throws IOException {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    // ------------------------------------------
+
+    private void ensure(final int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    // ------------------------------------------
+
+    private void flushBuffer() throws IOException {
+        out.write(buffer, 0, position);
+        position = 0;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    // ------------------------------------------
+
+}
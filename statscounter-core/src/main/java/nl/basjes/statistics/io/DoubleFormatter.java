@@ -0,0 +1,329 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.statistics.io;
+
+import java.math.BigInteger;
+
+/**
+ * Writes a double as the shortest decimal that reads back as exactly the same double, directly into a byte[].
+ * This is the Grisu3 algorithm from "Printing Floating-Point Numbers Quickly and Accurately with Integers"
+ * (Florian Loitsch, PLDI 2010) as it is used in the double-conversion library.
+ * For about 0.5% of all doubles Grisu3 cannot prove that its digits are the shortest and closest ones;
+ * for those {@link #format(double, byte[], int)} returns -1 and the caller must fall back to Double.toString.
+ * The layout follows Double.toString: plain notation for 10^-3 &lt;= |value| &lt; 10^7 else d.dddE[-]n.
+ */
+final class DoubleFormatter {
+
+    /**
+     * The maximum number of bytes written by a single call (-d.ddddddddddddddddE-324).
+     */
+    static final int MAX_LENGTH = 24;
+
+    private static final int    MAX_DIGITS          = 17;
+
+    private static final long   SIGNIFICAND_MASK    = 0x000FFFFFFFFFFFFFL;
+    private static final long   HIDDEN_BIT          = 0x0010000000000000L;
+    private static final int    EXPONENT_BIAS       = 0x3FF + 52;
+    private static final int    DENORMAL_EXPONENT   = 1 - EXPONENT_BIAS;
+
+    // The scaled value must have a binary exponent in this range so all digits can be extracted with 64 bit integers.
+    private static final int    MIN_TARGET_EXPONENT = -60;
+    private static final int    MAX_TARGET_EXPONENT = -32;
+    private static final double LOG10_2             = 0.30102999566398114;
+
+    // The normalized 64 bit significands and binary exponents of 10^(FIRST_CACHED_POWER + i * CACHED_POWER_STEP).
+    private static final int    FIRST_CACHED_POWER  = -348;
+    private static final int    CACHED_POWER_STEP   = 8;
+    private static final int    CACHED_POWERS       = 87;
+    private static final long[] CACHED_SIGNIFICANDS = new long[CACHED_POWERS];
+    private static final int[]  CACHED_EXPONENTS    = new int[CACHED_POWERS];
+
+    static {
+        final BigInteger ten = BigInteger.valueOf(10);
+        for (int i = 0; i < CACHED_POWERS; i++) {
+            final int decimalExponent = FIRST_CACHED_POWER + i * CACHED_POWER_STEP;
+            BigInteger significand;
+            int binaryExponent;
+            if (decimalExponent >= 0) {
+                final BigInteger power = ten.pow(decimalExponent);
+                binaryExponent = power.bitLength() - 64;
+                if (binaryExponent > 0) {
+                    significand = power.add(BigInteger.ONE.shiftLeft(binaryExponent - 1)).shiftRight(binaryExponent);
+                } else {
+                    significand = power.shiftLeft(-binaryExponent);
+                }
+            } else {
+                final BigInteger divisor = ten.pow(-decimalExponent);
+                binaryExponent = -(63 + divisor.bitLength());
+                significand = BigInteger.ONE.shiftLeft(-binaryExponent).add(divisor.shiftRight(1)).divide(divisor);
+            }
+            if (significand.bitLength() > 64) { // Rounding carried into a 65th bit
+                significand = significand.shiftRight(1);
+                binaryExponent++;
+            }
+            CACHED_SIGNIFICANDS[i] = significand.longValue();
+            CACHED_EXPONENTS[i]    = binaryExponent;
+        }
+    }
+
+    // ------------------------------------------
+
+    private DoubleFormatter() {
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Writes the shortest representation of value into buffer.
+     * @param value  A finite double
+     * @param buffer Where to write to (must have at least {@link #MAX_LENGTH} bytes available at offset)
+     * @param offset Where in buffer to start
+     * @return The offset just after the written number or -1 if Grisu3 failed (the buffer content is then undefined)
+     */
+    static int format(final double value, final byte[] buffer, final int offset) {
+        final long bits = Double.doubleToRawLongBits(value);
+        int position = offset;
+        if (bits < 0) {
+            buffer[position++] = '-';
+        }
+        final int  biasedExponent = (int) ((bits >>> 52) & 0x7FF);
+        final long fraction       = bits & SIGNIFICAND_MASK;
+        if (biasedExponent == 0 && fraction == 0) {
+            buffer[position++] = '0';
+            buffer[position++] = '.';
+            buffer[position++] = '0';
+            return position;
+        }
+
+        final long f;
+        final int  e;
+        if (biasedExponent == 0) {
+            f = fraction;
+            e = DENORMAL_EXPONENT;
+        } else {
+            f = fraction | HIDDEN_BIT;
+            e = biasedExponent - EXPONENT_BIAS;
+        }
+
+        // The value and the boundaries halfway to its neighbours, all with the same binary exponent.
+        final int  wShift = Long.numberOfLeadingZeros(f);
+        final long w      = f << wShift;
+        final int  wE     = e - wShift;
+        final long plus   = ((f << 1) + 1) << (wShift - 1);
+        final long minus;
+        if (fraction == 0 && biasedExponent > 1) { // The lower neighbour is closer
+            minus = ((f << 2) - 1) << (wShift - 2);
+        } else {
+            minus = ((f << 1) - 1) << (wShift - 1);
+        }
+
+        // Scale everything by a cached power of ten so the binary exponent is in the target range.
+        final int minExponent = MIN_TARGET_EXPONENT - (wE + 64);
+        final int k           = (int) Math.ceil((minExponent + 63) * LOG10_2);
+        final int index       = (-FIRST_CACHED_POWER + k - 1) / CACHED_POWER_STEP + 1;
+        final long cached     = CACHED_SIGNIFICANDS[index];
+        final int shift       = -(wE + CACHED_EXPONENTS[index] + 64);
+        if (shift < -MAX_TARGET_EXPONENT || shift > -MIN_TARGET_EXPONENT) {
+            return -1; // Cannot happen with the cached powers above
+        }
+
+        final long scaledW    = multiply(w, cached);
+        final long tooLow     = multiply(minus, cached) - 1;
+        final long tooHigh    = multiply(plus, cached) + 1;
+
+        final long integrals  = tooHigh >>> shift;
+        long divisor = 0;
+        int  kappa   = 0;
+        if (integrals != 0) {
+            divisor = 1;
+            kappa   = 1;
+            while (divisor * 10 <= integrals) {
+                divisor *= 10;
+                kappa++;
+            }
+        }
+
+        final int length = generateDigits(buffer, position, scaledW, tooLow, tooHigh, shift, divisor, kappa);
+        if (length < 0) {
+            return -1;
+        }
+        // The scaled value was w * 10^decimalExponent and is about digits * 10^(kappa - length)
+        final int decimalExponent = FIRST_CACHED_POWER + index * CACHED_POWER_STEP;
+        final int point = kappa - decimalExponent;
+        return layout(buffer, position, length, point);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The digit generation of Grisu3: produces the digits of the shortest number within the (unsafe) interval
+     * tooLow..tooHigh and verifies that it is also within the safe interval and the closest one to w.
+     * @return The number of digits or -1 if that could not be verified
+     */
+    private static int generateDigits(final byte[] buffer, final int start, final long w,
+                                      final long tooLow, final long tooHigh, final int shift,
+                                      final long initialDivisor, final int initialKappa) {
+        final long one            = 1L << shift;
+        final long fractionalMask = one - 1;
+        long unsafeInterval       = tooHigh - tooLow;
+        long integrals            = tooHigh >>> shift;
+        long fractionals          = tooHigh & fractionalMask;
+        long divisor              = initialDivisor;
+        long unit                 = 1;
+        int  length               = 0;
+
+        for (int kappa = initialKappa; kappa > 0; kappa--) {
+            buffer[start + length++] = (byte) ('0' + integrals / divisor);
+            integrals %= divisor;
+            final long rest = (integrals << shift) + fractionals;
+            if (lessThan(rest, unsafeInterval)) {
+                return roundWeed(buffer, start + length - 1, tooHigh - w, unsafeInterval, rest, divisor << shift, unit)
+                    ? length : -1;
+            }
+            divisor /= 10;
+        }
+
+        while (length < MAX_DIGITS) {
+            fractionals    *= 10;
+            unit           *= 10;
+            unsafeInterval *= 10;
+            buffer[start + length++] = (byte) ('0' + (fractionals >>> shift));
+            fractionals &= fractionalMask;
+            if (lessThan(fractionals, unsafeInterval)) {
+                return roundWeed(buffer, start + length - 1, (tooHigh - w) * unit, unsafeInterval, fractionals, one, unit)
+                    ? length : -1;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Moves the last digit down as long as that brings the number closer to w while staying in the interval,
+     * and checks the result is guaranteed to be inside the safe interval (all values are unsigned).
+     */
+    private static boolean roundWeed(final byte[] buffer, final int lastDigit, final long distanceTooHighW,
+                                     final long unsafeInterval, final long initialRest, final long tenKappa,
+                                     final long unit) {
+        final long smallDistance = distanceTooHighW - unit;
+        final long bigDistance   = distanceTooHighW + unit;
+        long rest = initialRest;
+        while (lessThan(rest, smallDistance)
+               && !lessThan(unsafeInterval - rest, tenKappa)
+               && (lessThan(rest + tenKappa, smallDistance)
+                   || !lessThan(smallDistance - rest, rest + tenKappa - smallDistance))) {
+            buffer[lastDigit]--;
+            rest += tenKappa;
+        }
+        if (lessThan(rest, bigDistance)
+            && !lessThan(unsafeInterval - rest, tenKappa)
+            && (lessThan(rest + tenKappa, bigDistance)
+                || lessThan(rest + tenKappa - bigDistance, bigDistance - rest))) {
+            return false; // Both candidates are too close to call
+        }
+        return !lessThan(rest, 2 * unit) && !lessThan(unsafeInterval - 4 * unit, rest);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Turns the digits at start into the same notation Double.toString uses.
+     * @param point The position of the decimal point relative to the first digit
+     */
+    private static int layout(final byte[] buffer, final int start, final int length, final int point) {
+        int position;
+        if (point > 0 && point <= 7) {                   // ddd.ddd or ddd000.0
+            if (point < length) {
+                System.arraycopy(buffer, start + point, buffer, start + point + 1, length - point);
+                buffer[start + point] = '.';
+                return start + length + 1;
+            }
+            position = start + length;
+            while (position < start + point) {
+                buffer[position++] = '0';
+            }
+            buffer[position++] = '.';
+            buffer[position++] = '0';
+            return position;
+        }
+
+        if (point > -3 && point <= 0) {                  // 0.00ddd
+            final int zeros = -point;
+            System.arraycopy(buffer, start, buffer, start + 2 + zeros, length);
+            buffer[start]     = '0';
+            buffer[start + 1] = '.';
+            for (int i = 0; i < zeros; i++) {
+                buffer[start + 2 + i] = '0';
+            }
+            return start + 2 + zeros + length;
+        }
+
+        // d.dddE[-]n
+        if (length > 1) {
+            System.arraycopy(buffer, start + 1, buffer, start + 2, length - 1);
+            buffer[start + 1] = '.';
+            position = start + length + 1;
+        } else {
+            buffer[start + 1] = '.';
+            buffer[start + 2] = '0';
+            position = start + 3;
+        }
+        buffer[position++] = 'E';
+        int exponent = point - 1;
+        if (exponent < 0) {
+            buffer[position++] = '-';
+            exponent = -exponent;
+        }
+        if (exponent >= 100) {
+            buffer[position++] = (byte) ('0' + exponent / 100);
+        }
+        if (exponent >= 10) {
+            buffer[position++] = (byte) ('0' + exponent / 10 % 10);
+        }
+        buffer[position++] = (byte) ('0' + exponent % 10);
+        return position;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The upper 64 bits of the 128 bit product of two unsigned longs (rounded).
+     */
+    private static long multiply(final long x, final long y) {
+        final long a = x >>> 32;
+        final long b = x & 0xFFFFFFFFL;
+        final long c = y >>> 32;
+        final long d = y & 0xFFFFFFFFL;
+        final long ac = a * c;
+        final long bc = b * c;
+        final long ad = a * d;
+        final long bd = b * d;
+        final long middle = (bd >>> 32) + (ad & 0xFFFFFFFFL) + (bc & 0xFFFFFFFFL) + (1L << 31);
+        return ac + (ad >>> 32) + (bc >>> 32) + (middle >>> 32);
+    }
+
+    // ------------------------------------------
+
+    private static boolean lessThan(final long a, final long b) { // Unsigned
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import nl.basjes.statistics.Counter;
+import nl.basjes.statistics.KeyedCounterSink;
+
+/**
+ * Aggregates keyed counters when there are more distinct keys than fit on the heap.
+ * 
+ * At most maxEntries counters are kept in memory. When a new key would exceed that, all counters in
+ * memory are written (sorted by key) as a run of (key, 40 byte counter) records to a file in the spill
+ * directory and memory is cleared. {@link #finish(KeyedCounterSink)} then does a k-way merge of all runs
+ * (and what is still in memory) combining the records of the same key with {@link Counter#increment(byte[])}.
+ * If there are more runs than the merge factor they are first merged into larger runs in extra passes.
+ * The keys are stored with {@link DataOutputStream#writeUTF(String)} so they are limited to 65535 bytes.
+ * 
+ * An instance is not thread safe.
+ */
+public class ExternalCounterAggregator implements Closeable {
+
+    public static final int DEFAULT_MERGE_FACTOR = 64;
+
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+
+    private final File                 spillDirectory;
+    private final int                  maxEntries;
+    private final int                  mergeFactor;
+    private final Map<String, Counter> counters;
+    private final List<File>           runs = new ArrayList<File>();
+    private boolean                    finished = false;
+
+    private long spillCount      = 0; // Number of runs written because memory was full
+    private long spilledRecords  = 0; // Records written in those runs
+    private long spilledBytes    = 0; // Bytes written in those runs
+    private long mergePasses     = 0; // Number of intermediate merge passes
+    private long mergedRecords   = 0; // Records read from runs while merging
+    private long outputRecords   = 0; // Records given to the sink
+
+    // ------------------------------------------
+
+    public ExternalCounterAggregator(final File spillDirectory, final int maxEntries) {
+        this(spillDirectory, maxEntries, DEFAULT_MERGE_FACTOR);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param spillDirectory The directory for the temporary run files
+     * @param maxEntries     The maximum number of counters in memory
+     * @param mergeFactor    The maximum number of runs merged at the same time
+     */
+    public ExternalCounterAggregator(final File spillDirectory, final int maxEntries, final int mergeFactor) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The maxEntries must be at least 1 (was " + maxEntries + ")");
+        }
+        if (mergeFactor < 2) {
+            throw new IllegalArgumentException("The mergeFactor must be at least 2 (was " + mergeFactor + ")");
+        }
+        this.spillDirectory = spillDirectory;
+        this.maxEntries     = maxEntries;
+        this.mergeFactor    = mergeFactor;
+        this.counters       = new HashMap<String, Counter>(Math.min(maxEntries, 1 << 20) * 4 / 3 + 1);
+    }
+
+    // ------------------------------------------
+
+    private Counter getCounter(final String key) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The aggregator has already been finished");
+        }
+        Counter counter = counters.get(key);
+        if (counter == null) {
+            if (counters.size() >= maxEntries) {
+                spill();
+            }
+            counter = new Counter();
+            counters.put(key, counter);
+        }
+        return counter;
+    }
+
+    // ------------------------------------------
+
+    public void increment(final String key, final double value) throws IOException {
+        getCounter(key).increment(value);
+    }
+
+    // ------------------------------------------
+
+    public void increment(final String key, final Counter counter) throws IOException {
+        getCounter(key).increment(counter);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param key   The key
+     * @param bytes A counter in the serialized form (i.e. {@link Counter#toBytes()})
+     */
+    public void increment(final String key, final byte[] bytes) throws IOException {
+        getCounter(key).increment(bytes);
+    }
+
+    // ------------------------------------------
+
+    private String[] sortedKeys() {
+        final String[] keys = counters.keySet().toArray(new String[counters.size()]);
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Write everything in memory as a new sorted run.
+     */
+    private void spill() throws IOException {
+        final File run = File.createTempFile("counters-", ".run", spillDirectory);
+        runs.add(run);
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(run), IO_BUFFER_SIZE))) {
+            for (String key : sortedKeys()) {
+                out.writeUTF(key);
+                counters.get(key).toBytes(bytes, 0);
+                out.write(bytes);
+            }
+            out.flush();
+            spilledBytes += out.size();
+        }
+        spillCount++;
+        spilledRecords += counters.size();
+        counters.clear();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge all runs and the counters in memory and give the combined counters to the sink in the order of the keys.
+     * After this the aggregator cannot be used anymore.
+     */
+    public void finish(final KeyedCounterSink<String> sink) throws IOException {
+        if (finished) {
+            throw new IllegalStateException("The aggregator has already been finished");
+        }
+        finished = true;
+
+        // Reduce the number of runs so the final merge (which also reads memory) stays within the merge factor.
+        while (runs.size() >= mergeFactor) {
+            final List<File> group = new ArrayList<File>(runs.subList(0, mergeFactor));
+            runs.subList(0, mergeFactor).clear();
+            final File merged = File.createTempFile("counters-", ".run", spillDirectory);
+            runs.add(merged);
+            try (final DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(merged), IO_BUFFER_SIZE))) {
+                merge(group, null, new KeyedCounterSink<String>() {
+                    @Override
+                    public void accept(final String key, final byte[] bytes) throws IOException {
+                        out.writeUTF(key);
+                        out.write(bytes);
+                    }
+                });
+            }
+            mergePasses++;
+        }
+
+        final String[] keys = sortedKeys();
+        final List<File> group = new ArrayList<File>(runs);
+        runs.clear();
+        merge(group, keys, new KeyedCounterSink<String>() {
+            @Override
+            public void accept(final String key, final byte[] bytes) throws IOException {
+                sink.accept(key, bytes);
+                outputRecords++;
+            }
+        });
+        counters.clear();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merge the runs (deleting them afterwards) and the counters in memory with the specified keys.
+     */
+    private void merge(final List<File> group, final String[] memoryKeys, final KeyedCounterSink<String> sink)
+        throws IOException {
+        final PriorityQueue<Source> queue = new PriorityQueue<Source>(group.size() + 1);
+        try {
+            for (File run : group) {
+                final Source source = new RunSource(run);
+                if (source.advance()) {
+                    queue.add(source);
+                } else {
+                    source.close();
+                }
+            }
+            if (memoryKeys != null) {
+                final Source source = new MemorySource(memoryKeys);
+                if (source.advance()) {
+                    queue.add(source);
+                }
+            }
+
+            final Counter combined = new Counter();
+            final byte[]  bytes    = new byte[COUNTER_BYTES_SIZE];
+            while (!queue.isEmpty()) {
+                final String key = queue.peek().key;
+                combined.wipe();
+                while (!queue.isEmpty() && queue.peek().key.equals(key)) {
+                    final Source source = queue.poll();
+                    combined.increment(source.bytes);
+                    if (source.advance()) {
+                        queue.add(source);
+                    } else {
+                        source.close();
+                    }
+                }
+                combined.toBytes(bytes, 0);
+                sink.accept(key, bytes);
+            }
+        } finally {
+            for (Source source : queue) {
+                source.close();
+            }
+            for (File run : group) {
+                run.delete();
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    public long getSpillCount() {
+        return spillCount;
+    }
+
+    // ------------------------------------------
+
+    public long getSpilledRecords() {
+        return spilledRecords;
+    }
+
+    // ------------------------------------------
+
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of extra passes needed because there were more runs than the merge factor.
+     */
+    public long getMergePasses() {
+        return mergePasses;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of records read back from the runs during all merges.
+     */
+    public long getMergedRecords() {
+        return mergedRecords;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of distinct keys given to the sink.
+     */
+    public long getOutputRecords() {
+        return outputRecords;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of counters currently in memory.
+     */
+    public int getMemoryEntries() {
+        return counters.size();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Removes all remaining run files (needed only if {@link #finish(KeyedCounterSink)} was not called or failed).
+     */
+    @Override
+    public void close() {
+        for (File run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        counters.clear();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * A sorted stream of (key, counter) records.
+     */
+    private abstract static class Source implements Comparable<Source> {
+        String       key;
+        final byte[] bytes = new byte[COUNTER_BYTES_SIZE];
+
+        /**
+         * Move to the next record.
+         * @return false if there are no more records
+         */
+        abstract boolean advance() throws IOException;
+
+        void close() throws IOException {
+        }
+
+        @Override
+        public int compareTo(final Source other) {
+            return key.compareTo(other.key);
+        }
+    }
+
+    // ------------------------------------------
+
+    private final class RunSource extends Source {
+        private final DataInputStream in;
+
+        RunSource(final File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run), IO_BUFFER_SIZE));
+        }
+
+        @Override
+        boolean advance() throws IOException {
+            try {
+                key = in.readUTF();
+            } catch (EOFException e) {
+                return false;
+            }
+            in.readFully(bytes);
+            mergedRecords++;
+            return true;
+        }
+
+        @Override
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    // ------------------------------------------
+
+    private final class MemorySource extends Source {
+        private final String[] keys;
+        private int            next = 0;
+
+        MemorySource(final String[] keys) {
+            this.keys = keys;
+        }
+
+        @Override
+        boolean advance() {
+            if (next == keys.length) {
+                return false;
+            }
+            key = keys[next++];
+            counters.get(key).toBytes(bytes, 0);
+            return true;
+        }
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import java.util.Arrays;
+
+/**
+ * Compresses a column of doubles with the XOR scheme from the Facebook Gorilla paper
+ * (http://www.vldb.org/pvldb/vol8/p1816-teller.pdf) into a growable bit stream:
+ * - The first value is stored as is (64 bits).
+ * - If a value is the same as the previous one only a single '0' bit is stored.
+ * - Else '1' followed by the meaningful bits of (value XOR previous): either with '0' when they fit within the
+ *   leading/trailing zeros window of the previous XOR, or with '1', 5 bits leading zeros, 6 bits length and the bits.
+ */
+final class GorillaEncoder {
+
+    private byte[] bytes = new byte[1024];
+    private long   bitPosition;
+
+    private long   previous;
+    private int    previousLeading;
+    private int    previousTrailing;
+    private boolean first;
+
+    // ------------------------------------------
+
+    GorillaEncoder() {
+        reset();
+    }
+
+    // ------------------------------------------
+
+    void reset() {
+        Arrays.fill(bytes, (byte) 0);
+        bitPosition      = 0;
+        previous         = 0;
+        previousLeading  = -1;
+        previousTrailing = 0;
+        first            = true;
+    }
+
+    // ------------------------------------------
+
+    void add(final long valueBits) {
+        if (first) {
+            first = false;
+            writeBits(valueBits, 64);
+            previous = valueBits;
+            return;
+        }
+
+        final long xor = valueBits ^ previous;
+        previous = valueBits;
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        writeBits(1, 1);
+
+        final int leading  = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        final int trailing = Long.numberOfTrailingZeros(xor);
+        if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+            writeBits(0, 1);
+            final int length = 64 - previousLeading - previousTrailing;
+            writeBits(xor >>> previousTrailing, length);
+            return;
+        }
+
+        final int length = 64 - leading - trailing;
+        writeBits(1, 1);
+        writeBits(leading, 5);
+        writeBits(length - 1, 6);
+        writeBits(xor >>> trailing, length);
+        previousLeading  = leading;
+        previousTrailing = trailing;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Append the lowest count bits of value (most significant first).
+     */
+    private void writeBits(final long value, final int count) {
+        final long neededBytes = (bitPosition + count + 7) >>> 3;
+        if (neededBytes > bytes.length) {
+            bytes = Arrays.copyOf(bytes, (int) Math.max(neededBytes, bytes.length * 2L));
+        }
+        int remaining = count;
+        while (remaining > 0) {
+            final int freeInByte = 8 - (int) (bitPosition & 7);
+            final int chunk      = Math.min(freeInByte, remaining);
+            final int bits       = (int) (value >>> (remaining - chunk)) & ((1 << chunk) - 1);
+            bytes[(int) (bitPosition >>> 3)] |= (byte) (bits << (freeInByte - chunk));
+            bitPosition += chunk;
+            remaining   -= chunk;
+        }
+    }
+
+    // ------------------------------------------
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    // ------------------------------------------
+
+    int getLength() {
+        return (int) ((bitPosition + 7) >>> 3);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Decode count values that were encoded into bytes[offset ...].
+     */
+    static void decode(final byte[] bytes, final int offset, final long[] values, final int count) {
+        long bitPosition = (long) offset << 3;
+        long previous    = 0;
+        int  leading     = 0;
+        int  trailing    = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0) {
+                previous = readBits(bytes, bitPosition, 64);
+                bitPosition += 64;
+                values[0] = previous;
+                continue;
+            }
+            if (readBits(bytes, bitPosition++, 1) == 0) {
+                values[i] = previous;
+                continue;
+            }
+            if (readBits(bytes, bitPosition++, 1) != 0) {
+                leading = (int) readBits(bytes, bitPosition, 5);
+                bitPosition += 5;
+                final int length = (int) readBits(bytes, bitPosition, 6) + 1;
+                bitPosition += 6;
+                trailing = 64 - leading - length;
+            }
+            final int length = 64 - leading - trailing;
+            final long xor = readBits(bytes, bitPosition, length) << trailing;
+            bitPosition += length;
+            previous ^= xor;
+            values[i] = previous;
+        }
+    }
+
+    // ------------------------------------------
+
+    private static long readBits(final byte[] bytes, final long bitPosition, final int count) {
+        long result    = 0;
+        long position  = bitPosition;
+        int  remaining = count;
+        while (remaining > 0) {
+            final int availableInByte = 8 - (int) (position & 7);
+            final int chunk           = Math.min(availableInByte, remaining);
+            final int bits = ((bytes[(int) (position >>> 3)] & 0xFF) >>> (availableInByte - chunk)) & ((1 << chunk) - 1);
+            result = (result << chunk) | bits;
+            position  += chunk;
+            remaining -= chunk;
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+}
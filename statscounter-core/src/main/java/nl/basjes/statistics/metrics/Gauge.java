@@ -0,0 +1,36 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.metrics;
+
+/**
+ * A metric that records arbitrary observed values (queue sizes, payload sizes, ...).
+ */
+public class Gauge extends Metric {
+
+    Gauge(final String name) {
+        super(name);
+    }
+
+    // ------------------------------------------
+
+    public void update(final double value) {
+        record(value);
+    }
+
+    // ------------------------------------------
+
+}
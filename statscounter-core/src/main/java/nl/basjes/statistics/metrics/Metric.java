@@ -0,0 +1,75 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.metrics;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * A named metric that aggregates all recorded values into a {@link Counter}.
+ * Recording is thread safe and does not allocate.
+ */
+public abstract class Metric {
+
+    private final String  name;
+    private final Counter counter = new Counter();
+
+    // ------------------------------------------
+
+    protected Metric(final String name) {
+        this.name = name;
+    }
+
+    // ------------------------------------------
+
+    public String getName() {
+        return name;
+    }
+
+    // ------------------------------------------
+
+    protected void record(final double value) {
+        synchronized (counter) {
+            counter.increment(value);
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get a consistent copy of the statistics of all values recorded so far.
+     * @return
+     */
+    public Counter snapshot() {
+        synchronized (counter) {
+            return new Counter(counter.toBytes());
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Forget all values recorded so far.
+     */
+    public void reset() {
+        synchronized (counter) {
+            counter.wipe();
+        }
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.regex.Pattern;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * A registry of named {@link Counter} backed metrics that can be exposed in the Prometheus text format.
+ * Look up a metric once and keep the reference; recording values does not touch the registry.
+ */
+public class MetricsRegistry {
+
+    private static final Pattern VALID_NAME = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+
+    private final ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
+
+    // ------------------------------------------
+
+    /**
+     * Get (or create) the timer with the specified name.
+     * @param name The name of the timer
+     * @return The timer
+     */
+    public Timer timer(final String name) {
+        final Metric metric = metrics.get(name);
+        if (metric == null) {
+            return register(new Timer(checkName(name)), Timer.class);
+        }
+        return cast(metric, Timer.class);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get (or create) the gauge with the specified name.
+     * @param name The name of the gauge
+     * @return The gauge
+     */
+    public Gauge gauge(final String name) {
+        final Metric metric = metrics.get(name);
+        if (metric == null) {
+            return register(new Gauge(checkName(name)), Gauge.class);
+        }
+        return cast(metric, Gauge.class);
+    }
+
+    // ------------------------------------------
+
+    private <T extends Metric> T register(final T metric, final Class<T> clazz) {
+        final Metric existing = metrics.putIfAbsent(metric.getName(), metric);
+        if (existing == null) {
+            return metric;
+        }
+        return cast(existing, clazz);
+    }
+
+    // ------------------------------------------
+
+    private <T extends Metric> T cast(final Metric metric, final Class<T> clazz) {
+        if (!clazz.isInstance(metric)) {
+            throw new IllegalArgumentException("The metric \"" + metric.getName() + "\" is a "
+                    + metric.getClass().getSimpleName() + " and not a " + clazz.getSimpleName());
+        }
+        return clazz.cast(metric);
+    }
+
+    // ------------------------------------------
+
+    private String checkName(final String name) {
+        if (name == null || !VALID_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Invalid metric name: \"" + name + "\"");
+        }
+        return name;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Write all metrics in the Prometheus text exposition format (version 0.0.4).
+     * Each metric becomes a summary (_count and _sum) and a gauge for each of _min, _max, _mean and _stddev.
+     * @param out Where to write the metrics to
+     * @throws IOException
+     */
+    public void writePrometheus(final Writer out) throws IOException {
+        for (Metric metric : metrics.values()) {
+            final String name = metric.getName();
+            final Counter counter = metric.snapshot();
+            final long n = counter.getN();
+
+            out.write("# TYPE " + name + " summary\n");
+            writeSample(out, name + "_count", n);
+            writeSample(out, name + "_sum",   n == 0 ? 0 : counter.getSum());
+            writeGauge (out, name + "_min",    counter.getMin());
+            writeGauge (out, name + "_max",    counter.getMax());
+            writeGauge (out, name + "_mean",   counter.getMean());
+            writeGauge (out, name + "_stddev", counter.getStdDev());
+        }
+        out.flush();
+    }
+
+    // ------------------------------------------
+
+    private void writeGauge(final Writer out, final String name, final double value) throws IOException {
+        out.write("# TYPE " + name + " gauge\n");
+        writeSample(out, name, value);
+    }
+
+    // ------------------------------------------
+
+    private void writeSample(final Writer out, final String name, final double value) throws IOException {
+        out.write(name);
+        out.write(' ');
+        if (Double.isNaN(value)) {
+            out.write("NaN");
+        } else if (value == Double.POSITIVE_INFINITY) {
+            out.write("+Inf");
+        } else if (value == Double.NEGATIVE_INFINITY) {
+            out.write("-Inf");
+        } else if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            out.write(Long.toString((long) value));
+        } else {
+            out.write(Double.toString(value));
+        }
+        out.write('\n');
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A small embedded HTTP endpoint that serves the metrics of a {@link MetricsRegistry}
+ * in the Prometheus text format on /metrics.
+ * It only listens on the loopback interface.
+ */
+public class PrometheusHttpEndpoint {
+
+    private static final Charset UTF8         = Charset.forName("UTF-8");
+    private static final String  CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+
+    // ------------------------------------------
+
+    /**
+     * @param registry The metrics to serve
+     * @param port     The port to listen on (0 means: pick any free port)
+     * @throws IOException
+     */
+    public PrometheusHttpEndpoint(final MetricsRegistry registry, final int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final StringWriter text = new StringWriter();
+                registry.writePrometheus(text);
+                final byte[] body = text.toString().getBytes(UTF8);
+
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, body.length);
+                final OutputStream out = exchange.getResponseBody();
+                try {
+                    out.write(body);
+                } finally {
+                    out.close();
+                }
+            }
+        });
+    }
+
+    // ------------------------------------------
+
+    public void start() {
+        server.start();
+    }
+
+    // ------------------------------------------
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the port the endpoint is listening on
+     * @return
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,53 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.metrics;
+
+/**
+ * A reusable stopwatch that records the time between {@link #start()} and {@link #close()} into a {@link Timer}.
+ * An instance must only be used by a single thread and cannot be nested.
+ */
+public final class Stopwatch implements AutoCloseable {
+
+    private final Timer timer;
+    private long        startNanos;
+
+    // ------------------------------------------
+
+    Stopwatch(final Timer timer) {
+        this.timer = timer;
+    }
+
+    // ------------------------------------------
+
+    public Stopwatch start() {
+        startNanos = System.nanoTime();
+        return this;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Records the time elapsed since the last call to {@link #start()}.
+     */
+    @Override
+    public void close() {
+        timer.update(System.nanoTime() - startNanos);
+    }
+
+    // ------------------------------------------
+
+}
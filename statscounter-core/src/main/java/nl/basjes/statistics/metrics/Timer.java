@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.metrics;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A metric that records durations in seconds.
+ */
+public class Timer extends Metric {
+
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    Timer(final String name) {
+        super(name);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Record a duration
+     * @param nanos The duration in nanoseconds
+     */
+    public void update(final long nanos) {
+        record(nanos / NANOS_PER_SECOND);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Run the task and record how long it took (also if it failed).
+     * @param task The task to run
+     */
+    public void time(final Runnable task) {
+        final long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            update(System.nanoTime() - start);
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Call the task and record how long it took (also if it failed).
+     * @param task The task to call
+     * @return The result of the task
+     * @throws Exception Whatever the task throws
+     */
+    public <T> T time(final Callable<T> task) throws Exception {
+        final long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            update(System.nanoTime() - start);
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Create a reusable stopwatch for this timer.
+     * Create it once (per thread) and use it as
+     * <pre>
+     * try (Stopwatch s = stopwatch.start()) {
+     *     ...
+     * }
+     * </pre>
+     * so the hot path does not allocate anything.
+     * @return A new stopwatch
+     */
+    public Stopwatch newStopwatch() {
+        return new Stopwatch(this);
+    }
+
+    // ------------------------------------------
+
+}
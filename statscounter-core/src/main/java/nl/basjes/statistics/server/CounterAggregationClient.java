@@ -0,0 +1,204 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.server;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.server.Protocol.FRAME_HEADER_SIZE;
+import static nl.basjes.statistics.server.Protocol.MAX_FRAME_SIZE;
+import static nl.basjes.statistics.server.Protocol.MAX_KEY_LENGTH;
+import static nl.basjes.statistics.server.Protocol.MERGE;
+import static nl.basjes.statistics.server.Protocol.RECORD_OVERHEAD;
+import static nl.basjes.statistics.server.Protocol.SNAPSHOT;
+import static nl.basjes.statistics.server.Protocol.SNAPSHOT_RESPONSE;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.TreeMap;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * Sends keyed counters to a {@link CounterAggregationServer}.
+ * The records are collected in a batch that is sent as a single frame when it is full or
+ * when {@link #flush()} is called. An instance is not thread safe.
+ */
+public class CounterAggregationClient implements Closeable, Flushable {
+
+    public static final int DEFAULT_BATCH_SIZE = 64 * 1024;
+
+    /** A batch must at least be able to hold a single record with the longest possible key. */
+    public static final int MIN_BATCH_SIZE     = FRAME_HEADER_SIZE + 4 + RECORD_OVERHEAD + MAX_KEY_LENGTH;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final SocketChannel channel;
+    private final ByteBuffer    batch;
+    private int                 records = 0;
+    private final byte[]        counterBytes = new byte[COUNTER_BYTES_SIZE];
+
+    // ------------------------------------------
+
+    public CounterAggregationClient(final InetSocketAddress address) throws IOException {
+        this(address, DEFAULT_BATCH_SIZE);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param address   The address of the server
+     * @param batchSize The maximum number of bytes sent in a single frame
+     */
+    public CounterAggregationClient(final InetSocketAddress address, final int batchSize) throws IOException {
+        if (batchSize < MIN_BATCH_SIZE || batchSize > MAX_FRAME_SIZE) {
+            throw new IllegalArgumentException("The batchSize must be in the range [" + MIN_BATCH_SIZE + ", " +
+                                               MAX_FRAME_SIZE + "] (was " + batchSize + ")");
+        }
+        batch   = ByteBuffer.allocate(batchSize);
+        channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        batch.position(FRAME_HEADER_SIZE + 4);
+    }
+
+    // ------------------------------------------
+
+    public void merge(final String key, final Counter counter) throws IOException {
+        counter.toBytes(counterBytes, 0);
+        merge(key, counterBytes);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param key   The key to merge the counter into
+     * @param bytes A counter in the serialized form (i.e. {@link Counter#toBytes()})
+     */
+    public void merge(final String key, final byte[] bytes) throws IOException {
+        if (bytes.length != COUNTER_BYTES_SIZE) {
+            throw new IllegalArgumentException("A serialized counter must be " + COUNTER_BYTES_SIZE + " bytes");
+        }
+        final byte[] keyBytes = key.getBytes(UTF8);
+        if (keyBytes.length > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("The key is too long (" + keyBytes.length + " bytes)");
+        }
+        if (batch.remaining() < RECORD_OVERHEAD + keyBytes.length) {
+            flush();
+        }
+        batch.putShort((short) keyBytes.length);
+        batch.put(keyBytes);
+        batch.put(bytes);
+        records++;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Send all batched records to the server.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (records == 0) {
+            return;
+        }
+        batch.putInt(0, batch.position() - 4);
+        batch.put(4, MERGE);
+        batch.putInt(FRAME_HEADER_SIZE, records);
+        batch.flip();
+        writeFully(batch);
+        batch.clear();
+        batch.position(FRAME_HEADER_SIZE + 4);
+        records = 0;
+    }
+
+    // ------------------------------------------
+
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    // ------------------------------------------
+
+    private void readFully(final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("The server closed the connection");
+            }
+        }
+        buffer.flip();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Retrieve all merged counters from the server.
+     * All records merged by this client before this call are included.
+     * @return The merged counters sorted by key.
+     */
+    public Map<String, Counter> snapshot() throws IOException {
+        flush();
+        final ByteBuffer request = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        request.putInt(1).put(SNAPSHOT).flip();
+        writeFully(request);
+
+        final ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        readFully(header);
+        final int length = header.getInt();
+        if (length < 5 || length > MAX_FRAME_SIZE || header.get() != SNAPSHOT_RESPONSE) {
+            throw new IOException("Invalid snapshot response");
+        }
+        final ByteBuffer payload = ByteBuffer.allocate(length - 1);
+        readFully(payload);
+
+        final Map<String, Counter> result = new TreeMap<String, Counter>();
+        final int count = payload.getInt();
+        final byte[] bytes = payload.array();
+        for (int record = 0; record < count; record++) {
+            final int keyLength = payload.getShort() & 0xFFFF;
+            final String key = new String(bytes, payload.position(), keyLength, UTF8);
+            payload.position(payload.position() + keyLength);
+            payload.get(counterBytes);
+            result.put(key, new Counter(counterBytes));
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Sends the remaining batched records and closes the connection.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,479 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.server;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.statistics.server.Protocol.FRAME_HEADER_SIZE;
+import static nl.basjes.statistics.server.Protocol.MAX_FRAME_SIZE;
+import static nl.basjes.statistics.server.Protocol.MAX_KEY_LENGTH;
+import static nl.basjes.statistics.server.Protocol.MERGE;
+import static nl.basjes.statistics.server.Protocol.RECORD_OVERHEAD;
+import static nl.basjes.statistics.server.Protocol.SNAPSHOT;
+import static nl.basjes.statistics.server.Protocol.SNAPSHOT_RESPONSE;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * A small standalone daemon that receives keyed serialized {@link Counter}s from many producers
+ * (see {@link CounterAggregationClient}), merges them into in-memory counters and serves merged snapshots.
+ * 
+ * One acceptor thread hands the connections round robin to a fixed number of IO threads which each run
+ * their own non blocking selector loop. The records are merged directly from the receive buffer
+ * (using {@link Counter#increment(byte[], int)}) into a map that is split into shards with their own lock
+ * so the IO threads rarely contend.
+ */
+public class CounterAggregationServer implements Closeable {
+
+    private static final Charset UTF8                = Charset.forName("UTF-8");
+    private static final int     INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final List<Shard>         shards;
+    private final List<IoLoop>        ioLoops;
+    private final Thread              acceptor;
+    private final AtomicLong          merges  = new AtomicLong();
+    private volatile boolean          running = true;
+
+    // ------------------------------------------
+
+    /**
+     * A server on the loopback interface.
+     * @param port The port to listen on (0 means: pick any free port)
+     */
+    public CounterAggregationServer(final int port, final int ioThreads, final int shardCount) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), ioThreads, shardCount);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param address    The address to listen on
+     * @param ioThreads  The number of threads that read from the connections
+     * @param shardCount The number of independently locked parts of the counter map
+     */
+    public CounterAggregationServer(final InetSocketAddress address, final int ioThreads, final int shardCount)
+        throws IOException {
+        if (ioThreads < 1) {
+            throw new IllegalArgumentException("There must be at least 1 IO thread (was " + ioThreads + ")");
+        }
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least 1 shard (was " + shardCount + ")");
+        }
+        shards = new ArrayList<Shard>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new Shard());
+        }
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+
+        ioLoops = new ArrayList<IoLoop>(ioThreads);
+        try {
+            for (int i = 0; i < ioThreads; i++) {
+                ioLoops.add(new IoLoop("CounterAggregationServer-io-" + i));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "CounterAggregationServer-acceptor");
+        acceptor.setDaemon(true);
+    }
+
+    // ------------------------------------------
+
+    public void start() {
+        for (IoLoop ioLoop : ioLoops) {
+            ioLoop.thread.start();
+        }
+        acceptor.start();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The port the server is listening on
+     */
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of records that have been merged so far
+     */
+    public long getMergeCount() {
+        return merges.get();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return A copy of all merged counters, sorted by key.
+     */
+    public Map<String, Counter> snapshot() {
+        final Map<String, Counter> result = new TreeMap<String, Counter>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Map.Entry<String, Counter> entry : shard.counters.entrySet()) {
+                    result.put(entry.getKey(), new Counter(entry.getValue().toBytes()));
+                }
+            }
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        serverChannel.close();
+        for (IoLoop ioLoop : ioLoops) {
+            ioLoop.selector.wakeup();
+        }
+        try {
+            if (acceptor.isAlive()) {
+                acceptor.join();
+            }
+            for (IoLoop ioLoop : ioLoops) {
+                if (ioLoop.thread.isAlive()) {
+                    ioLoop.thread.join();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (IoLoop ioLoop : ioLoops) {
+            ioLoop.closeAll();
+        }
+    }
+
+    // ------------------------------------------
+
+    private void accept() {
+        int next = 0;
+        while (running) {
+            final SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                return; // The server channel was closed
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            } catch (IOException e) {
+                closeQuietly(channel);
+                continue;
+            }
+            ioLoops.get(next).register(channel);
+            next = (next + 1) % ioLoops.size();
+        }
+    }
+
+    // ------------------------------------------
+
+    private static void closeQuietly(final Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Nothing we can do about it
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Merges all records of a MERGE frame. The whole frame is validated before anything is merged
+     * so a bad frame changes nothing.
+     * @param keys Receives the decoded keys (reused between frames)
+     */
+    private void merge(final byte[] bytes, final int offset, final int length,
+                       final CharsetDecoder decoder, final List<String> keys) throws IOException {
+        if (length < 4) {
+            throw new IOException("Invalid MERGE frame of " + length + " bytes");
+        }
+        final int records = ByteBuffer.wrap(bytes, offset, 4).getInt();
+        if (records < 0 || records > (length - 4) / RECORD_OVERHEAD) {
+            throw new IOException("Invalid number of records (" + records + ") in a MERGE frame of " + length + " bytes");
+        }
+        final int end = offset + length;
+
+        // Validate everything first
+        keys.clear();
+        int position = offset + 4;
+        for (int record = 0; record < records; record++) {
+            if (position + RECORD_OVERHEAD > end) {
+                throw new IOException("Truncated MERGE frame");
+            }
+            final int keyLength = ((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF);
+            position += 2;
+            if (keyLength > MAX_KEY_LENGTH) {
+                throw new IOException("Key of " + keyLength + " bytes in a MERGE frame");
+            }
+            if (position + keyLength + COUNTER_BYTES_SIZE > end) {
+                throw new IOException("Truncated MERGE frame");
+            }
+            // Throws a CharacterCodingException (an IOException) if the key is not valid UTF-8
+            keys.add(decoder.decode(ByteBuffer.wrap(bytes, position, keyLength)).toString());
+            position += keyLength + COUNTER_BYTES_SIZE;
+        }
+        if (position != end) {
+            throw new IOException((end - position) + " trailing bytes after the records of a MERGE frame");
+        }
+
+        // Then apply it
+        position = offset + 4;
+        for (int record = 0; record < records; record++) {
+            final int keyLength = ((bytes[position] & 0xFF) << 8) | (bytes[position + 1] & 0xFF);
+            position += 2 + keyLength;
+
+            final String key = keys.get(record);
+            final Shard shard = shards.get((key.hashCode() & Integer.MAX_VALUE) % shards.size());
+            synchronized (shard) {
+                Counter counter = shard.counters.get(key);
+                if (counter == null) {
+                    counter = new Counter();
+                    shard.counters.put(key, counter);
+                }
+                counter.increment(bytes, position);
+            }
+            position += COUNTER_BYTES_SIZE;
+        }
+        merges.addAndGet(records);
+    }
+
+    // ------------------------------------------
+
+    private byte[] snapshotFrame() throws IOException {
+        final Map<String, Counter> snapshot = snapshot();
+        final List<byte[]> keys = new ArrayList<byte[]>(snapshot.size());
+        long length = 1 + 4;
+        for (String key : snapshot.keySet()) {
+            final byte[] keyBytes = key.getBytes(UTF8);
+            if (keyBytes.length > MAX_KEY_LENGTH) {
+                throw new IOException("Key of " + keyBytes.length + " bytes cannot be sent in a snapshot");
+            }
+            keys.add(keyBytes);
+            length += RECORD_OVERHEAD + keyBytes.length;
+        }
+        if (length > MAX_FRAME_SIZE) {
+            throw new IOException("The snapshot (" + length + " bytes) does not fit in a single frame");
+        }
+
+        final ByteBuffer frame = ByteBuffer.allocate(4 + (int) length);
+        frame.putInt((int) length);
+        frame.put(SNAPSHOT_RESPONSE);
+        frame.putInt(snapshot.size());
+        final byte[] counterBytes = new byte[COUNTER_BYTES_SIZE];
+        int index = 0;
+        for (Counter counter : snapshot.values()) {
+            final byte[] keyBytes = keys.get(index++);
+            frame.putShort((short) keyBytes.length);
+            frame.put(keyBytes);
+            counter.toBytes(counterBytes, 0);
+            frame.put(counterBytes);
+        }
+        return frame.array();
+    }
+
+    // ------------------------------------------
+
+    private static final class Shard {
+        private final Map<String, Counter> counters = new HashMap<String, Counter>();
+    }
+
+    // ------------------------------------------
+
+    private final class IoLoop implements Runnable {
+        private final Selector                             selector;
+        private final Thread                               thread;
+        private final ConcurrentLinkedQueue<SocketChannel> pending = new ConcurrentLinkedQueue<SocketChannel>();
+
+        IoLoop(final String name) throws IOException {
+            selector = Selector.open();
+            thread   = new Thread(this, name);
+            thread.setDaemon(true);
+        }
+
+        void register(final SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    return;
+                }
+                SocketChannel channel;
+                while ((channel = pending.poll()) != null) {
+                    try {
+                        channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                    } catch (ClosedChannelException e) {
+                        // The client is already gone
+                    }
+                }
+
+                final Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    final SelectionKey key = selected.next();
+                    selected.remove();
+                    final Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isWritable()) {
+                            connection.write(key);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read(key);
+                        }
+                    } catch (IOException e) {
+                        // A broken or misbehaving client: drop the connection
+                        key.cancel();
+                        closeQuietly(connection.channel);
+                    }
+                }
+            }
+        }
+
+        void closeAll() {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                closeQuietly(channel);
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    // ------------------------------------------
+
+    private final class Connection {
+        private final SocketChannel  channel;
+        private final CharsetDecoder decoder = UTF8.newDecoder()
+                                                   .onMalformedInput(CodingErrorAction.REPORT)
+                                                   .onUnmappableCharacter(CodingErrorAction.REPORT);
+        private final List<String>   keys    = new ArrayList<String>();
+        private ByteBuffer           in      = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private ByteBuffer           out     = null;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read(final SelectionKey key) throws IOException {
+            if (channel.read(in) < 0) {
+                key.cancel();
+                channel.close();
+                return;
+            }
+            handleFrames(key);
+        }
+
+        void write(final SelectionKey key) throws IOException {
+            channel.write(out);
+            if (!out.hasRemaining()) {
+                out = null;
+                key.interestOps(SelectionKey.OP_READ);
+                handleFrames(key); // Frames that arrived while the response was being sent
+            }
+        }
+
+        /**
+         * Handle all complete frames in the input buffer.
+         * While a response is still being sent no further frames are handled to keep them in order.
+         */
+        private void handleFrames(final SelectionKey key) throws IOException {
+            in.flip();
+            while (out == null && in.remaining() >= 4) {
+                final int length = in.getInt(in.position());
+                if (length < 1 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    if (in.capacity() < 4 + length) {
+                        final ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                        larger.put(in);
+                        in = larger;
+                        return;
+                    }
+                    break;
+                }
+
+                final int  frameStart = in.position();
+                final byte type       = in.get(frameStart + 4);
+                switch (type) {
+                    case MERGE:
+                        merge(in.array(), frameStart + FRAME_HEADER_SIZE, length - 1, decoder, keys);
+                        break;
+                    case SNAPSHOT:
+                        out = ByteBuffer.wrap(snapshotFrame());
+                        channel.write(out);
+                        if (out.hasRemaining()) {
+                            key.interestOps(SelectionKey.OP_WRITE);
+                        } else {
+                            out = null;
+                        }
+                        break;
+                    default:
+                        throw new IOException("Unknown frame type " + type);
+                }
+                in.position(frameStart + 4 + length);
+            }
+            in.compact();
+        }
+    }
+
+    // ------------------------------------------
+
+}
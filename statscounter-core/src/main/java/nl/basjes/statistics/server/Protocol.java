@@ -0,0 +1,54 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.server;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+
+/**
+ * The wire format between the {@link CounterAggregationClient} and the {@link CounterAggregationServer}.
+ * Every frame is: length (int, the number of bytes after this field), type (byte), payload.
+ * <pre>
+ * MERGE             : records(int) (keyLength(short) key(UTF-8) counter(40 bytes))*   no response
+ * SNAPSHOT          : empty                                                          SNAPSHOT_RESPONSE
+ * SNAPSHOT_RESPONSE : records(int) (keyLength(short) key(UTF-8) counter(40 bytes))*
+ * </pre>
+ * A connection handles its frames in order so a snapshot includes all merges sent before it on that connection.
+ * Keys are valid UTF-8 of at most {@link #MAX_KEY_LENGTH} bytes. A MERGE frame is validated completely before
+ * any of its records is merged; a frame that is invalid in any way (or a snapshot that would not fit in
+ * {@link #MAX_FRAME_SIZE}) closes the connection.
+ */
+final class Protocol {
+
+    static final byte MERGE             = 1;
+    static final byte SNAPSHOT          = 2;
+    static final byte SNAPSHOT_RESPONSE = 3;
+
+    static final int  FRAME_HEADER_SIZE = 4 + 1;
+    static final int  MAX_KEY_LENGTH    = Short.MAX_VALUE;
+    static final int  MAX_FRAME_SIZE    = 64 * 1024 * 1024;
+
+    /** The bytes needed for a record besides the key itself. */
+    static final int  RECORD_OVERHEAD   = 2 + COUNTER_BYTES_SIZE;
+
+    // ------------------------------------------
+
+    private Protocol() {
+    }
+
+    // ------------------------------------------
+
+}
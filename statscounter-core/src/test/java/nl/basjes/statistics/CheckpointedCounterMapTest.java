@@ -0,0 +1,119 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.basjes.statistics.CheckpointedCounterMap.DeltaMode;
+
+import org.junit.Test;
+
+public class CheckpointedCounterMapTest {
+
+    private static final double MAX_ERROR = 0.0001;
+
+    // ------------------------------------------
+
+    private static class Consumer implements KeyedCounterSink<String> {
+        private final Map<String, Counter> state = new HashMap<String, Counter>();
+        private DeltaMode deltaMode;
+        private int received = 0;
+
+        @Override
+        public void accept(final String key, final byte[] bytes) {
+            CheckpointedCounterMap.apply(state, key, bytes, deltaMode);
+            received++;
+        }
+    }
+
+    // ------------------------------------------
+
+    private void checkRebuild(final DeltaMode deltaMode) throws IOException {
+        final CheckpointedCounterMap<String> map = new CheckpointedCounterMap<String>(deltaMode);
+        final Consumer consumer = new Consumer();
+
+        map.increment("a", 1);
+        map.increment("b", 2);
+        map.increment("c", 3);
+
+        consumer.deltaMode = DeltaMode.FULL_VALUES; // The base snapshot is always full
+        assertEquals(3, map.snapshot(consumer));
+        assertEquals(0, map.getDirtyCount());
+
+        consumer.deltaMode = deltaMode;
+
+        map.increment("a", 10);
+        map.increment("a", 20);
+        assertEquals(1, map.getDirtyCount());
+        consumer.received = 0;
+        assertEquals(1, map.checkpoint(consumer));
+        assertEquals(1, consumer.received);
+
+        // Nothing changed so nothing must be emitted
+        assertEquals(0, map.checkpoint(consumer));
+
+        // Empty counters change nothing (in both forms) and do not create a key
+        map.increment("e", new Counter());
+        map.increment("e", new Counter().toBytes());
+        assertEquals(0, map.getDirtyCount());
+        assertEquals(0, map.checkpoint(consumer));
+
+        final Counter other = new Counter();
+        other.increment(5);
+        other.increment(7);
+        map.increment("b", other);
+        map.increment("d", other.toBytes());
+        map.increment("d", (Counter) null);
+        assertEquals(2, map.checkpoint(consumer));
+
+        assertEquals(4, map.size());
+        assertEquals(4, consumer.state.size());
+        for (String key : new String[]{"a", "b", "c", "d"}) {
+            final Counter expected = map.get(key);
+            final Counter actual = consumer.state.get(key);
+            assertEquals(expected.getN(),        actual.getN());
+            assertEquals(expected.getMin(),      actual.getMin(),      MAX_ERROR);
+            assertEquals(expected.getMax(),      actual.getMax(),      MAX_ERROR);
+            assertEquals(expected.getSum(),      actual.getSum(),      MAX_ERROR);
+            assertEquals(expected.getVariance(), actual.getVariance(), MAX_ERROR);
+        }
+        assertEquals(3, consumer.state.get("a").getN());
+        assertNull(map.get("e"));
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testRebuildFromFullValues() throws IOException {
+        checkRebuild(DeltaMode.FULL_VALUES);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testRebuildFromIncrements() throws IOException {
+        checkRebuild(DeltaMode.INCREMENTS);
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ColumnarCountersTest {
+
+    private static final int    KEYS      = 50;
+    private static final double MAX_ERROR = 0.0000001;
+
+    // ------------------------------------------
+
+    @Test
+    public void testSameAsCounters() {
+        final Random random = new Random(42);
+        final ColumnarCounters columnar = new ColumnarCounters(KEYS);
+        final Counter[] counters = new Counter[KEYS];
+        for (int key = 0; key < KEYS; key++) {
+            counters[key] = new Counter();
+        }
+
+        for (int batch = 0; batch < 20; batch++) {
+            final int len = random.nextInt(1000);
+            final int[] keys = new int[len + 10]; // Longer than len: the rest must be ignored
+            final double[] values = new double[len + 10];
+            for (int row = 0; row < len; row++) {
+                keys[row]   = random.nextInt(KEYS - 1); // The last key is never used
+                values[row] = random.nextGaussian() * (keys[row] + 1) + 100;
+                counters[keys[row]].increment(values[row]);
+            }
+            columnar.update(keys, values, len);
+        }
+
+        for (int key = 0; key < KEYS; key++) {
+            final Counter expected = counters[key];
+            final Counter actual   = columnar.toCounter(key);
+            assertEquals(expected.getN(), columnar.getN(key));
+            assertEquals(expected.getN(), actual.getN());
+            if (expected.getN() == 0) {
+                assertEquals(expected.toString(), actual.toString());
+                continue;
+            }
+            assertEquals(expected.getMin(),      columnar.getMin(key), 0);
+            assertEquals(expected.getMax(),      columnar.getMax(key), 0);
+            assertEquals(expected.getSum(),      columnar.getSum(key), MAX_ERROR * Math.abs(expected.getSum()));
+            assertEquals(expected.getMean(),     actual.getMean(),     MAX_ERROR);
+            assertEquals(expected.getVariance(), actual.getVariance(), MAX_ERROR * expected.getVariance());
+        }
+
+        columnar.wipe();
+        assertEquals(0, columnar.getN(0));
+    }
+
+    // ------------------------------------------
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTooShortColumns() {
+        new ColumnarCounters(KEYS).update(new int[5], new double[4], 5);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBadKeyLeavesNoState() {
+        final ColumnarCounters columnar = new ColumnarCounters(KEYS);
+        try {
+            columnar.update(new int[]{1, 2, 2, KEYS}, new double[]{10, 20, 30, 40}, 4);
+            fail("A key out of range must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(0, columnar.getN(1));
+        assertEquals(0, columnar.getN(2));
+
+        // The next batch must not be affected by the rejected one
+        columnar.update(new int[]{2, 1, 2}, new double[]{1, 5, 3}, 3);
+        assertEquals(1, columnar.getN(1));
+        assertEquals(5, columnar.getSum(1), 0);
+        assertEquals(2, columnar.getN(2));
+        assertEquals(4, columnar.getSum(2), 0);
+        assertEquals(1, columnar.getMin(2), 0);
+        assertEquals(3, columnar.getMax(2), 0);
+        assertEquals(2, columnar.toCounter(2).getVariance(), MAX_ERROR);
+
+        try {
+            columnar.update(new int[]{-1}, new double[]{1}, 1);
+            fail("A negative key must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(2, columnar.getN(2));
+    }
+
+    // ------------------------------------------
+
+}
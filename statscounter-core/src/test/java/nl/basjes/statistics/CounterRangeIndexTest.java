@@ -0,0 +1,159 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Random;
+
+import nl.basjes.utils.TestDataSerializable;
+
+import org.junit.Test;
+
+public class CounterRangeIndexTest {
+
+    private static Counter[] createBuckets(final int count) {
+        final Random random = new Random(42);
+        final Counter[] buckets = new Counter[count];
+        for (int bucket = 0; bucket < count; bucket++) {
+            buckets[bucket] = new Counter();
+            if (bucket % 13 == 0) {
+                continue; // Some empty buckets
+            }
+            final int values = 1 + random.nextInt(5);
+            for (int i = 0; i < values; i++) {
+                buckets[bucket].increment(random.nextInt(1000));
+            }
+        }
+        return buckets;
+    }
+
+    // ------------------------------------------
+
+    private static Counter linear(final Counter[] buckets, final int from, final int to) {
+        final Counter result = new Counter();
+        for (int bucket = from; bucket < to; bucket++) {
+            result.increment(buckets[bucket]);
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testQueries() {
+        final Counter[] buckets = createBuckets(3000);
+        final CounterRangeIndex index = new CounterRangeIndex(1); // Forces many doublings
+        for (Counter bucket : buckets) {
+            index.append(bucket);
+        }
+        assertEquals(3000, index.size());
+        assertEquals(linear(buckets, 0, 3000).getN(), index.getN());
+
+        final Random random = new Random(1);
+        for (int query = 0; query < 1000; query++) {
+            final int from = random.nextInt(3000);
+            final int to   = from + random.nextInt(3000 - from + 1);
+            assertSameStatistics(linear(buckets, from, to), index.query(from, to));
+        }
+        assertEquals(0, index.query(5, 5).getN());
+        assertSameStatistics(buckets[7], index.getBucket(7));
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testUpdates() {
+        final Counter[] buckets = createBuckets(100);
+        final CounterRangeIndex index = new CounterRangeIndex(100);
+        for (Counter bucket : buckets) {
+            index.append(bucket);
+        }
+
+        final Counter late = new Counter();
+        late.increment(5000);
+        index.increment(42, late);
+        buckets[42].increment(late);
+        buckets[10] = new Counter();
+        index.set(10, null);
+
+        assertSameStatistics(linear(buckets, 0, 100), index.query(0, 100));
+        assertSameStatistics(linear(buckets, 10, 43), index.query(10, 43));
+
+        try {
+            index.query(0, 101);
+            fail("Out of range must fail");
+        } catch (IndexOutOfBoundsException e) {
+            // Expected
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSerialization() throws IOException {
+        final CounterRangeIndex index = new CounterRangeIndex(8);
+        for (Counter bucket : createBuckets(5)) {
+            index.append(bucket);
+        }
+        final byte[] bytes = TestDataSerializable.serialize(index);
+        assertEquals(4 + 4 + 15 * Counter.COUNTER_BYTES_SIZE, bytes.length);
+
+        final CounterRangeIndex deserialized = TestDataSerializable.deserialize(bytes, CounterRangeIndex.class);
+        assertEquals(5, deserialized.size());
+        assertArrayEquals(index.query(1, 4).toBytes(), deserialized.query(1, 4).toBytes());
+        deserialized.append(new Counter());
+        assertEquals(6, deserialized.size());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSpeed() {
+        final int minutes = 90 * 24 * 60;
+        final Counter[] buckets = createBuckets(minutes);
+        final CounterRangeIndex index = new CounterRangeIndex();
+        for (Counter bucket : buckets) {
+            index.append(bucket);
+        }
+
+        final int queries = 200;
+        final Random random = new Random(2);
+        long indexNanos  = 0;
+        long linearNanos = 0;
+        for (int query = 0; query < queries; query++) {
+            final int from = random.nextInt(minutes / 2);
+            final int to   = from + minutes / 2;
+            long start = System.nanoTime();
+            final Counter fromIndex = index.query(from, to);
+            indexNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            final Counter fromBuckets = linear(buckets, from, to);
+            linearNanos += System.nanoTime() - start;
+            assertSameStatistics(fromBuckets, fromIndex);
+        }
+        System.out.println(String.format("Range query over %,d buckets: index %,.0f queries/s, linear %,.0f queries/s",
+                                         minutes / 2, queries * 1e9 / indexNanos, queries * 1e9 / linearNanos));
+    }
+
+    // ------------------------------------------
+
+}
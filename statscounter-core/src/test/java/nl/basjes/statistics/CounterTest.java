@@ -21,7 +21,7 @@ import java.io.IOException;
 import junit.framework.TestCase;
 
 import nl.basjes.statistics.Counter;
-import nl.basjes.utils.TestWritableInterface;
+import nl.basjes.utils.TestDataSerializable;
 
 import org.junit.Test;
 
@@ -454,9 +454,36 @@ public class CounterTest extends TestCase {
     // ------------------------------------------
 
     @Test
-    public void testCounterWritability() throws IOException {
-        byte[] bytes = TestWritableInterface.serialize(REFERENCE_COUNTER);
-        Counter deserialized = TestWritableInterface.asWritable(bytes, Counter.class);
+    public void testCounterSerializationWithOffset() throws IOException {
+        final byte[] bytes = new byte[5 + 2 * Counter.COUNTER_BYTES_SIZE];
+        REFERENCE_COUNTER.toBytes(bytes, 5);
+        REFERENCE_COUNTER.toBytes(bytes, 5 + Counter.COUNTER_BYTES_SIZE);
+
+        final Counter deserialized = new Counter();
+        deserialized.increment(bytes, 5);
+        assertTrue(BAD,counterIsSameAsReferenceCounter(deserialized));
+
+        final Counter c1 = new Counter();
+        c1.increment(1);
+        c1.increment(2);
+        c1.increment(3);
+        c1.toBytes(bytes, 5 + Counter.COUNTER_BYTES_SIZE);
+
+        final Counter c2 = new Counter();
+        c2.increment(0);
+        c2.increment(10);
+        c2.increment(20);
+        c2.increment(bytes, 5 + Counter.COUNTER_BYTES_SIZE);
+        assertTrue(BAD,counterIsSameAsReferenceCounter(c2));
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testCounterDataSerializable() throws IOException {
+        byte[] bytes = TestDataSerializable.serialize(REFERENCE_COUNTER);
+        assertEquals(Counter.COUNTER_BYTES_SIZE, bytes.length);
+        Counter deserialized = TestDataSerializable.deserialize(bytes, Counter.class);
         assertTrue(BAD,counterIsSameAsReferenceCounter(deserialized));
     }
 
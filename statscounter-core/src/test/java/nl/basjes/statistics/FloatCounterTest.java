@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import nl.basjes.utils.TestDataSerializable;
+
+import org.junit.Test;
+
+public class FloatCounterTest {
+
+    @Test
+    public void testSameAsCounter() throws IOException {
+        final StatisticsCounter counter = new Counter();
+        final FloatCounter floatCounter = new FloatCounter();
+        final FloatCounter part         = new FloatCounter();
+        for (double value : new double[]{1, 2, 3, 0, 10, 20}) {
+            counter.increment(value);
+        }
+        floatCounter.increment(1);
+        floatCounter.increment(2);
+        floatCounter.increment(3);
+        part.increment(0);
+        part.increment(10);
+        part.increment(20);
+        floatCounter.increment(part);
+        assertSameStatistics(counter, floatCounter);
+
+        // Interchangeable via the standard serialized form
+        assertSameStatistics(counter, new FloatCounter(counter.toBytes()));
+        assertSameStatistics(counter, new Counter(floatCounter.toBytes()));
+
+        final byte[] bytes = TestDataSerializable.serialize(floatCounter);
+        assertEquals(Counter.COUNTER_BYTES_SIZE, bytes.length);
+        assertSameStatistics(counter, TestDataSerializable.deserialize(bytes, FloatCounter.class));
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testEmpty() {
+        final FloatCounter floatCounter = new FloatCounter();
+        floatCounter.increment(new Counter().toBytes());
+        assertSameStatistics(new Counter(), floatCounter);
+        assertEquals(new Counter().toString(), floatCounter.toString());
+    }
+
+    // ------------------------------------------
+
+    @Test(expected = ArithmeticException.class)
+    public void testCountOverflow() {
+        final Counter big = new Counter();
+        big.increment(1);
+        final byte[] bytes = big.toBytes();
+        bytes[3] = 1; // n = 2^32 + 1
+        new FloatCounter().increment(bytes);
+    }
+
+    // ------------------------------------------
+
+}
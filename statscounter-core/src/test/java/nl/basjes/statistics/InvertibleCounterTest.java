@@ -0,0 +1,176 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import nl.basjes.utils.TestDataSerializable;
+
+import org.junit.Test;
+
+public class InvertibleCounterTest {
+
+    @Test
+    public void testDecrementValue() {
+        final InvertibleCounter counter = new InvertibleCounter();
+        for (double value : new double[]{1, 2, 3, 0, 10, 20, 7}) {
+            counter.increment(value);
+        }
+        counter.decrement(7);
+
+        final Counter expected = new Counter();
+        for (double value : new double[]{1, 2, 3, 0, 10, 20}) {
+            expected.increment(value);
+        }
+        assertSameStatistics(expected, counter);
+        assertTrue(counter.isMinMaxExact());
+        assertEquals(0,  counter.getMin(), 0);
+        assertEquals(20, counter.getMax(), 0);
+
+        // Removing the highest value makes max a bound
+        counter.decrement(20);
+        assertFalse(counter.isMinMaxExact());
+        assertEquals(20, counter.getMax(), 0);
+        expected.wipe();
+        for (double value : new double[]{1, 2, 3, 0, 10}) {
+            expected.increment(value);
+        }
+        assertSameStatistics(expected, counter);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testDecrementCounter() {
+        final Counter part1 = new Counter();
+        part1.increment(1);
+        part1.increment(2);
+        part1.increment(3);
+
+        final Counter part2 = new Counter();
+        part2.increment(0);
+        part2.increment(10);
+        part2.increment(20);
+
+        final InvertibleCounter counter = new InvertibleCounter();
+        counter.increment(part1);
+        counter.increment(part2.toBytes());
+        counter.decrement(part2);
+        assertSameStatistics(part1, counter);
+
+        counter.decrement(part1.toBytes());
+        assertEquals(0, counter.getN());
+        assertTrue(counter.isMinMaxExact());
+        assertEquals(Double.NaN, counter.getMean(), 0);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testInvertibleCounters() {
+        final InvertibleCounter exact = new InvertibleCounter();
+        exact.increment(1);
+        exact.increment(2);
+        exact.increment(3);
+
+        final InvertibleCounter inexact = new InvertibleCounter();
+        inexact.increment(0);
+        inexact.increment(10);
+        inexact.increment(20);
+        inexact.increment(30);
+        inexact.decrement(30);
+        assertFalse(inexact.isMinMaxExact());
+
+        // Merging with an empty counter keeps the flag of the other one
+        final InvertibleCounter total = new InvertibleCounter();
+        total.increment(new InvertibleCounter());
+        total.increment(exact);
+        assertTrue(total.isMinMaxExact());
+        assertSameStatistics(exact, total);
+
+        // A bound in either counter makes the combined min and max a bound
+        total.increment(inexact);
+        assertFalse(total.isMinMaxExact());
+        assertEquals(0,  total.getMin(), 0);
+        assertEquals(30, total.getMax(), 0);
+        final Counter expected = new Counter();
+        for (double value : new double[]{1, 2, 3, 0, 10, 20}) {
+            expected.increment(value);
+        }
+        assertSameStatistics(expected, total);
+
+        // Removing an inexact counter cannot make the result exact
+        total.decrement(inexact);
+        assertFalse(total.isMinMaxExact());
+        assertSameStatistics(exact, total);
+
+        // Removing everything gives an empty (and exact) counter
+        total.decrement(exact);
+        assertEquals(0, total.getN());
+        assertTrue(total.isMinMaxExact());
+
+        // Removing an exact counter that holds neither the min nor the max keeps it exact
+        final InvertibleCounter both = new InvertibleCounter();
+        both.increment(exact);
+        final InvertibleCounter inner = new InvertibleCounter();
+        inner.increment(2);
+        both.decrement(inner);
+        assertTrue(both.isMinMaxExact());
+        assertEquals(2, both.getN());
+        assertEquals(1, both.getMin(), 0);
+        assertEquals(3, both.getMax(), 0);
+    }
+
+    // ------------------------------------------
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecrementTooMuch() {
+        final InvertibleCounter counter = new InvertibleCounter();
+        counter.increment(1);
+        counter.decrement(1);
+        counter.decrement(1);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSerialization() throws IOException {
+        final InvertibleCounter counter = new InvertibleCounter();
+        counter.increment(1);
+        counter.increment(2);
+        counter.increment(3);
+        counter.decrement(1);
+
+        final byte[] bytes = TestDataSerializable.serialize(counter);
+        assertEquals(Counter.COUNTER_BYTES_SIZE + 1, bytes.length);
+        final InvertibleCounter deserialized = TestDataSerializable.deserialize(bytes, InvertibleCounter.class);
+        assertEquals(counter.toString(), deserialized.toString());
+        assertFalse(deserialized.isMinMaxExact());
+
+        // Interchangeable via the standard serialized form
+        assertSameStatistics(counter, new Counter(counter.toBytes()));
+        assertSameStatistics(counter, new InvertibleCounter(counter.toBytes()));
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.utils.TestCounters.assertClose;
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Random;
+
+import nl.basjes.utils.TestDataSerializable;
+
+import org.junit.Test;
+
+public class LongCounterTest {
+
+    /**
+     * Merging LongCounters is exact so they must be identical.
+     */
+    private void assertIdentical(final LongCounter expected, final LongCounter actual) {
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.getVarianceNumerator(), actual.getVarianceNumerator());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSameAsCounter() {
+        final Counter     counter     = new Counter();
+        final LongCounter longCounter = new LongCounter();
+        for (long value : new long[]{1, 2, 3, 0, 10, 20}) {
+            counter.increment(value);
+            longCounter.increment(value);
+        }
+        assertEquals(6,  longCounter.getN());
+        assertEquals(36, longCounter.getSum());
+        assertEquals(0,  longCounter.getMin());
+        assertEquals(20, longCounter.getMax());
+        assertEquals(BigInteger.valueOf(514), longCounter.getSumOfSquares());
+        assertEquals(BigInteger.valueOf(6 * 514 - 36 * 36), longCounter.getVarianceNumerator());
+        assertClose("mean",     counter.getMean(),     longCounter.getMean());
+        assertClose("variance", counter.getVariance(), longCounter.getVariance());
+        assertClose("stddev",   counter.getStdDev(),   longCounter.getStdDev());
+
+        assertSameStatistics(counter, longCounter.toCounter());
+
+        assertEquals(0, new LongCounter().toCounter().getN());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeIsExactAndOrderIndependent() {
+        final Random random = new Random(42);
+        final LongCounter[] parts = new LongCounter[10];
+        final LongCounter all = new LongCounter();
+        for (int p = 0; p < parts.length; p++) {
+            parts[p] = new LongCounter();
+            for (int i = 0; i < 100; i++) {
+                final long value = random.nextLong() >> random.nextInt(64); // Also very large values
+                parts[p].increment(value >> 4);
+                all.increment(value >> 4);
+            }
+        }
+
+        final LongCounter forward = new LongCounter();
+        for (int p = 0; p < parts.length; p++) {
+            forward.increment(parts[p]);
+        }
+        final LongCounter backward = new LongCounter();
+        for (int p = parts.length - 1; p >= 0; p--) {
+            backward.increment(parts[p]);
+        }
+        assertIdentical(all, forward);
+        assertIdentical(all, backward);
+
+        // Self merge must work
+        final LongCounter twice = new LongCounter();
+        twice.increment(all);
+        twice.increment(all);
+        all.increment(all);
+        assertIdentical(twice, all);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testLargeSquares() {
+        final LongCounter longCounter = new LongCounter();
+        longCounter.increment(Long.MIN_VALUE);
+        longCounter.increment(Long.MAX_VALUE);
+        final BigInteger min = BigInteger.valueOf(Long.MIN_VALUE);
+        final BigInteger max = BigInteger.valueOf(Long.MAX_VALUE);
+        assertEquals(min.multiply(min).add(max.multiply(max)), longCounter.getSumOfSquares());
+        assertEquals(-1, longCounter.getSum());
+    }
+
+    // ------------------------------------------
+
+    @Test(expected = ArithmeticException.class)
+    public void testSumOverflow() {
+        final LongCounter longCounter = new LongCounter();
+        longCounter.increment(Long.MAX_VALUE);
+        longCounter.increment(1);
+    }
+
+    // ------------------------------------------
+
+    private LongCounter almostFullSquares() {
+        // The sum stays small but the sum of squares is almost 2^128
+        final LongCounter longCounter = new LongCounter();
+        longCounter.increment(Long.MAX_VALUE);
+        longCounter.increment(-Long.MAX_VALUE);
+        longCounter.increment(Long.MAX_VALUE);
+        longCounter.increment(-Long.MAX_VALUE);
+        return longCounter;
+    }
+
+    @Test
+    public void testOverflowChangesNothing() {
+        final LongCounter expected    = almostFullSquares();
+        final LongCounter longCounter = almostFullSquares();
+
+        try {
+            longCounter.increment(Long.MAX_VALUE);
+            fail("The sum of squares should overflow");
+        } catch (ArithmeticException e) {
+            assertIdentical(expected, longCounter);
+        }
+
+        final LongCounter other = new LongCounter();
+        other.increment(Long.MAX_VALUE);
+        try {
+            longCounter.increment(other);
+            fail("The sum of squares should overflow");
+        } catch (ArithmeticException e) {
+            assertIdentical(expected, longCounter);
+        }
+
+        try {
+            longCounter.increment(longCounter);
+            fail("The sum of squares should overflow");
+        } catch (ArithmeticException e) {
+            assertIdentical(expected, longCounter);
+        }
+
+        assertEquals(4, longCounter.getN());
+        assertEquals(0, longCounter.getSum());
+        assertEquals(expected.getVariance(), longCounter.getVariance(), 0);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSerialization() throws IOException {
+        final LongCounter longCounter = new LongCounter();
+        assertEquals(1, TestDataSerializable.serialize(longCounter).length);
+        assertIdentical(longCounter, TestDataSerializable.deserialize(TestDataSerializable.serialize(longCounter), LongCounter.class));
+
+        longCounter.increment(200);
+        longCounter.increment(404);
+        longCounter.increment(-3);
+        longCounter.increment(Long.MIN_VALUE / 2);
+
+        final byte[] bytes = TestDataSerializable.serialize(longCounter);
+        assertIdentical(longCounter, TestDataSerializable.deserialize(bytes, LongCounter.class));
+
+        final LongCounter small = new LongCounter();
+        small.increment(200);
+        small.increment(404);
+        assertEquals(11, TestDataSerializable.serialize(small).length); // Instead of 40
+    }
+
+    // ------------------------------------------
+
+}
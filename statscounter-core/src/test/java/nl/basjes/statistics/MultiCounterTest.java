@@ -0,0 +1,125 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Random;
+
+import nl.basjes.utils.TestDataSerializable;
+
+import org.junit.Test;
+
+public class MultiCounterTest {
+
+    private static final double MAX_ERROR = 0.0000001;
+
+    // ------------------------------------------
+
+    @Test
+    public void testSameAsSeparateCounters() {
+        final Random random = new Random(42);
+        final MultiCounter multi = new MultiCounter(3);
+        final Counter[] counters = {new Counter(), new Counter(), new Counter()};
+        final double[] values = new double[3];
+        for (int event = 0; event < 1000; event++) {
+            values[0] = random.nextDouble() * 100;
+            values[1] = random.nextInt(100000);
+            values[2] = -random.nextGaussian();
+            multi.increment(values);
+            for (int lane = 0; lane < 3; lane++) {
+                counters[lane].increment(values[lane]);
+            }
+        }
+        assertEquals(1000, multi.getN());
+        for (int lane = 0; lane < 3; lane++) {
+            // Exactly the same calculation so exactly the same result
+            assertArrayEquals(counters[lane].toBytes(), multi.getLane(lane).toBytes());
+            assertEquals(counters[lane].getMean(),     multi.getMean(lane),     0);
+            assertEquals(counters[lane].getVariance(), multi.getVariance(lane), 0);
+            assertEquals(counters[lane].getStdDev(),   multi.getStdDev(lane),   0);
+            assertEquals(counters[lane].getMin(),      multi.getMin(lane),      0);
+            assertEquals(counters[lane].getMax(),      multi.getMax(lane),      0);
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMerge() {
+        final MultiCounter all    = new MultiCounter(2);
+        final MultiCounter first  = new MultiCounter(2);
+        final MultiCounter second = new MultiCounter(2);
+        final Counter[] firstCounters  = {new Counter(), new Counter()};
+        final Counter[] secondCounters = {new Counter(), new Counter()};
+        for (int event = 0; event < 100; event++) {
+            all.increment(event, event * 10.0);
+            if (event % 3 == 0) {
+                first.increment(event, event * 10.0);
+                firstCounters[0].increment(event);
+                firstCounters[1].increment(event * 10.0);
+            } else {
+                second.increment(event, event * 10.0);
+                secondCounters[0].increment(event);
+                secondCounters[1].increment(event * 10.0);
+            }
+        }
+        first.increment(second);
+        first.increment(new MultiCounter(2));
+        assertEquals(100, first.getN());
+        for (int lane = 0; lane < 2; lane++) {
+            firstCounters[lane].increment(secondCounters[lane]);
+            assertArrayEquals(firstCounters[lane].toBytes(), first.getLane(lane).toBytes());
+            assertEquals(all.getVariance(lane), first.getVariance(lane), MAX_ERROR);
+            assertEquals(all.getSum(lane),      first.getSum(lane),      0);
+        }
+
+        try {
+            first.increment(new MultiCounter(3));
+            fail("Different lanes must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            first.increment(1.0);
+            fail("Wrong number of values must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSerialization() throws IOException {
+        final MultiCounter multi = new MultiCounter(4);
+        multi.increment(1, 2, 3, 4);
+        multi.increment(5, 6, 7, 8);
+        final byte[] bytes = TestDataSerializable.serialize(multi);
+        assertEquals(1 + 8 + 4 * 32, bytes.length);
+
+        final MultiCounter deserialized = TestDataSerializable.deserialize(bytes, MultiCounter.class);
+        assertEquals(4, deserialized.getLanes());
+        assertEquals(multi.toString(), deserialized.toString());
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.AfterClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelCounterMergerTest {
+
+    private static final int RECORDS = 10000;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @AfterClass
+    public static void shutdownPool() {
+        POOL.shutdown();
+    }
+
+    // ------------------------------------------
+
+    private Counter[] createCounters() {
+        final Random random = new Random(42);
+        final Counter[] counters = new Counter[RECORDS];
+        for (int i = 0; i < RECORDS; i++) {
+            counters[i] = new Counter();
+            final int values = random.nextInt(5); // Also some empty counters
+            for (int v = 0; v < values; v++) {
+                counters[i].increment(1000 + random.nextGaussian() * 100);
+            }
+        }
+        counters[RECORDS / 2] = null;
+        return counters;
+    }
+
+    // ------------------------------------------
+
+    private Counter linearMerge(final Counter[] counters) {
+        final Counter result = new Counter();
+        for (Counter counter : counters) {
+            result.increment(counter);
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    private byte[] serialize(final Counter[] counters) {
+        final byte[] bytes = new byte[counters.length * COUNTER_BYTES_SIZE];
+        final Counter empty = new Counter();
+        for (int i = 0; i < counters.length; i++) {
+            (counters[i] == null ? empty : counters[i]).toBytes(bytes, i * COUNTER_BYTES_SIZE);
+        }
+        return bytes;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeArray() {
+        final Counter[] counters = createCounters();
+        final Counter expected = linearMerge(counters);
+        assertSameStatistics(expected, new ParallelCounterMerger(POOL, 7).merge(counters));
+        assertSameStatistics(expected, new ParallelCounterMerger(POOL).merge(counters));
+        assertEquals(0, new ParallelCounterMerger(POOL).merge(counters, 3, 3).getN());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeBytes() {
+        final Counter[] counters = createCounters();
+        final Counter expected = linearMerge(counters);
+        final byte[] records = serialize(counters);
+
+        final byte[] bytes = new byte[records.length + 3];
+        System.arraycopy(records, 0, bytes, 3, records.length);
+        assertSameStatistics(expected, new ParallelCounterMerger(POOL, 13).merge(bytes, 3, RECORDS));
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(3);
+        assertSameStatistics(expected, new ParallelCounterMerger(POOL, 13).merge(buffer));
+        assertEquals(3, buffer.position());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeFile() throws IOException {
+        final Counter[] counters = createCounters();
+        final Counter expected = linearMerge(counters);
+
+        final File file = folder.newFile("counters.bin");
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(serialize(counters));
+        } finally {
+            out.close();
+        }
+        assertSameStatistics(expected, new ParallelCounterMerger(POOL, 100).merge(file));
+    }
+
+    // ------------------------------------------
+
+    @Test(expected = IOException.class)
+    public void testMergeBadFile() throws IOException {
+        final File file = folder.newFile("bad.bin");
+        final FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[COUNTER_BYTES_SIZE + 1]);
+        } finally {
+            out.close();
+        }
+        new ParallelCounterMerger(POOL).merge(file);
+    }
+
+    // ------------------------------------------
+
+}
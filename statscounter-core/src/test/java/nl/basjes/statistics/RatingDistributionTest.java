@@ -0,0 +1,172 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import nl.basjes.utils.TestDataSerializable;
+
+import org.junit.Test;
+
+public class RatingDistributionTest {
+
+    private static final double MAX_ERROR = 0.0000001;
+
+    // ------------------------------------------
+
+    private RatingDistribution create(final long... counts) {
+        final RatingDistribution distribution = new RatingDistribution(counts.length);
+        for (int stars = 1; stars <= counts.length; stars++) {
+            distribution.increment(stars, counts[stars - 1]);
+        }
+        return distribution;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testScores() {
+        final RatingDistribution distribution = create(0, 0, 0, 1, 3);
+        assertEquals(4, distribution.getN());
+        assertEquals(4.75, distribution.getMean(), MAX_ERROR);
+        // (1 + 2 + 3 + 4*2 + 5*4) / (4 + 5)
+        assertEquals(34.0 / 9.0, distribution.getDirichletScore(1.0), MAX_ERROR);
+        assertEquals(34.0 / 9.0, distribution.getDirichletScore(new double[]{1, 1, 1, 1, 1}), MAX_ERROR);
+
+        // Evan Miller: mean - z * sqrt((E[s^2] - mean^2) / (N + K + 1))
+        final double mean   = 34.0 / 9.0;
+        final double square = (1 + 4 + 9 + 16 * 2 + 25 * 4) / 9.0;
+        assertEquals(mean - 1.65 * Math.sqrt((square - mean * mean) / 10.0),
+                     distribution.getLowerBoundScore(), MAX_ERROR);
+
+        assertTrue(Double.isNaN(new RatingDistribution().getMean()));
+        assertEquals(3.0, new RatingDistribution().getDirichletScore(2.0), MAX_ERROR);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testRanking() {
+        // A single 5 star rating should not beat a lot of mostly 5 star ratings
+        final RatingDistribution single  = create(0, 0, 0, 0, 1);
+        final RatingDistribution many    = create(2, 1, 5, 40, 200);
+        final RatingDistribution polar   = create(100, 0, 0, 0, 100);
+        assertTrue(single.getMean() > many.getMean());
+        assertTrue(single.getLowerBoundScore() < many.getLowerBoundScore());
+        assertTrue(polar.getLowerBoundScore() < many.getLowerBoundScore());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeAndCounter() {
+        final RatingDistribution first  = create(1, 2, 3, 4, 5);
+        final RatingDistribution second = create(5, 0, 0, 0, 7);
+        first.increment(second);
+        assertEquals(6,  first.getCount(1));
+        assertEquals(12, first.getCount(5));
+        assertEquals(27, first.getN());
+
+        final Counter expected = new Counter();
+        for (int stars = 1; stars <= 5; stars++) {
+            for (int i = 0; i < first.getCount(stars); i++) {
+                expected.increment(stars);
+            }
+        }
+        final Counter counter = first.toCounter();
+        assertEquals(expected.getN(),        counter.getN());
+        assertEquals(expected.getSum(),      counter.getSum(),      MAX_ERROR);
+        assertEquals(expected.getMin(),      counter.getMin(),      MAX_ERROR);
+        assertEquals(expected.getMax(),      counter.getMax(),      MAX_ERROR);
+        assertEquals(expected.getVariance(), counter.getVariance(), MAX_ERROR);
+        assertEquals(first.getMean(),        counter.getMean(),     MAX_ERROR);
+
+        try {
+            first.increment(new RatingDistribution(10));
+            fail("Different levels must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            first.increment(6);
+            fail("Too many stars must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testInvalidCounts() {
+        final RatingDistribution distribution = create(1, 2, 3, 4, 5);
+        try {
+            distribution.increment(3, -1);
+            fail("A negative count must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        assertEquals(3, distribution.getCount(3));
+
+        distribution.increment(5, Long.MAX_VALUE - 5);
+        try {
+            distribution.increment(5, 1);
+            fail("An overflowing count must be rejected");
+        } catch (ArithmeticException e) {
+            // Expected
+        }
+        assertEquals(Long.MAX_VALUE, distribution.getCount(5));
+
+        // A merge that overflows any level changes nothing
+        final RatingDistribution other = create(1, 1, 1, 1, 1);
+        try {
+            distribution.increment(other);
+            fail("An overflowing merge must be rejected");
+        } catch (ArithmeticException e) {
+            // Expected
+        }
+        assertEquals(1, distribution.getCount(1));
+        assertEquals(Long.MAX_VALUE, distribution.getCount(5));
+
+        // The total does not fit either
+        try {
+            distribution.getN();
+            fail("An overflowing total must be rejected");
+        } catch (ArithmeticException e) {
+            // Expected
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSerialization() throws IOException {
+        final RatingDistribution distribution = create(1, 0, 0, 0, 0, 0, 0, 0, 0, 1000);
+        final byte[] bytes = TestDataSerializable.serialize(distribution);
+        assertEquals(1 + 10 * 8, bytes.length);
+        final RatingDistribution deserialized = TestDataSerializable.deserialize(bytes, RatingDistribution.class);
+        assertEquals(10, deserialized.getLevels());
+        assertEquals(distribution.toString(), deserialized.toString());
+    }
+
+    // ------------------------------------------
+
+}
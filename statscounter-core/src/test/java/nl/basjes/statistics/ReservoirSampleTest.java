@@ -0,0 +1,196 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import nl.basjes.utils.TestDataSerializable;
+
+import org.junit.Test;
+
+public class ReservoirSampleTest {
+
+    private static final int TRIALS = 2000;
+
+    // ------------------------------------------
+
+    @Test
+    public void testNotFull() {
+        final ReservoirSample sample = new ReservoirSample(10, 42);
+        for (int i = 0; i < 5; i++) {
+            sample.add(i);
+        }
+        assertEquals(5, sample.getSize());
+        assertEquals(5, sample.getCount());
+        assertArrayEquals(new double[]{0, 1, 2, 3, 4}, sample.getValues(), 0);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testUniform() {
+        final int[] included = new int[1000];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            final ReservoirSample sample = new ReservoirSample(100, trial + 1);
+            for (int i = 0; i < included.length; i++) {
+                sample.add(i);
+            }
+            assertEquals(100, sample.getSize());
+            assertEquals(1000, sample.getCount());
+            for (double value : sample.getValues()) {
+                included[(int) value]++;
+            }
+        }
+        assertInclusionChance(included, 0, included.length, 0.1);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Check that the values [from, to) were included in the sample with the expected chance
+     * (averaged over groups of 100 values to keep the noise down).
+     */
+    private void assertInclusionChance(final int[] included, final int from, final int to, final double expected) {
+        for (int group = from; group < to; group += 100) {
+            long total = 0;
+            for (int i = group; i < group + 100; i++) {
+                total += included[i];
+            }
+            final double chance = total / (100.0 * TRIALS);
+            assertEquals("Values " + group + "-" + (group + 99), expected, chance, expected * 0.1);
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeIsWeighted() {
+        final int[] included = new int[1000];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            // Split the values very unevenly over three samples and merge them in a different order
+            final ReservoirSample first  = new ReservoirSample(100, 3 * trial + 1);
+            final ReservoirSample second = new ReservoirSample(100, 3 * trial + 2);
+            final ReservoirSample third  = new ReservoirSample(100, 3 * trial + 3);
+            for (int i = 0; i < 1000; i++) {
+                if (i < 150) {
+                    first.add(i);
+                } else if (i < 200) {
+                    second.add(i);
+                } else {
+                    third.add(i);
+                }
+            }
+            second.merge(third);
+            second.merge(first);
+            assertEquals(100, second.getSize());
+            assertEquals(1000, second.getCount());
+            for (double value : second.getValues()) {
+                included[(int) value]++;
+            }
+        }
+        assertInclusionChance(included, 0, included.length, 0.1);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeDifferentCapacities() {
+        final int[] included = new int[2000];
+        for (int trial = 0; trial < TRIALS; trial++) {
+            final ReservoirSample large = new ReservoirSample(300, 2 * trial + 1);
+            final ReservoirSample small = new ReservoirSample(50,  2 * trial + 2);
+            for (int i = 0; i < 1000; i++) {
+                if (i < 600) {
+                    large.add(i);
+                } else {
+                    small.add(i);
+                }
+            }
+            // Both dropped values so neither can contribute more than the 50 values of the small one
+            final ReservoirSample merged;
+            if (trial % 2 == 0) {
+                large.merge(small);
+                merged = large;
+            } else {
+                small.merge(large);
+                merged = small;
+            }
+            assertEquals(50, merged.getSize());
+            assertEquals(1000, merged.getCount());
+
+            // Adding more values afterwards keeps it uniform
+            for (int i = 1000; i < 2000; i++) {
+                merged.add(i);
+            }
+            assertEquals(50, merged.getSize());
+            for (double value : merged.getValues()) {
+                included[(int) value]++;
+            }
+        }
+        assertInclusionChance(included, 0, included.length, 50.0 / 2000);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeSmall() {
+        final ReservoirSample first  = new ReservoirSample(10, 1);
+        final ReservoirSample second = new ReservoirSample(10, 2);
+        first.add(1);
+        second.add(2);
+        second.add(3);
+        first.merge(second);
+        first.merge(new ReservoirSample(10));
+        assertEquals(3, first.getSize());
+        assertEquals(3, first.getCount());
+        double total = 0;
+        for (double value : first.getValues()) {
+            total += value;
+        }
+        assertEquals(6, total, 0);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSerialization() throws IOException {
+        final ReservoirSample sample = new ReservoirSample(50, 42);
+        for (int i = 0; i < 500; i++) {
+            sample.add(i * 0.5);
+        }
+        final byte[] bytes = TestDataSerializable.serialize(sample);
+        assertEquals(4 + 4 + 8 + 8 + 50 * 8, bytes.length);
+
+        final ReservoirSample deserialized = TestDataSerializable.deserialize(bytes, ReservoirSample.class);
+        assertEquals(50, deserialized.getCapacity());
+        assertEquals(sample.toString(), deserialized.toString());
+        assertArrayEquals(sample.getValues(), deserialized.getValues(), 0);
+
+        // The random state is restored too so both continue identically
+        sample.add(1000);
+        deserialized.add(1000);
+        assertArrayEquals(sample.getValues(), deserialized.getValues(), 0);
+        assertTrue(deserialized.getCount() == 501);
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Random;
+
+import nl.basjes.utils.TestDataSerializable;
+
+import org.junit.Test;
+
+public class SlimCounterTest {
+
+    // ------------------------------------------
+
+    @Test
+    public void testSameAsCounter() throws IOException {
+        final Random random = new Random(42);
+        final Counter    counter   = new Counter();
+        final SlimCounter slim     = new SlimCounter();
+        final SlimCounter slimPart = new SlimCounter();
+        final Counter    part      = new Counter();
+
+        for (int i = 0; i < 1000; i++) {
+            final double value = random.nextGaussian() * 10 + 100;
+            if (i % 3 == 0) {
+                part.increment(value);
+                slimPart.increment(value);
+            } else {
+                counter.increment(value);
+                slim.increment(value);
+            }
+        }
+        counter.increment(part);
+        slim.increment(slimPart);
+
+        // Exactly the same calculations must give exactly the same bytes
+        assertArrayEquals(counter.toBytes(), slim.toBytes());
+        assertEquals(counter.getMean(),     slim.getMean(),     0);
+        assertEquals(counter.getVariance(), slim.getVariance(), 0);
+        assertEquals(counter.getStdDev(),   slim.getStdDev(),   0);
+        assertEquals(counter.toString(),    slim.toString());
+
+        // Interchangeable via the standard serialized form
+        final SlimCounter fromCounter = new SlimCounter(counter.toBytes());
+        assertArrayEquals(counter.toBytes(), fromCounter.toBytes());
+        final byte[] bytes = TestDataSerializable.serialize(slim);
+        assertArrayEquals(counter.toBytes(), bytes);
+        assertArrayEquals(bytes, TestDataSerializable.deserialize(bytes, SlimCounter.class).toBytes());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testEmpty() {
+        final SlimCounter slim = new SlimCounter();
+        slim.increment(new Counter().toBytes());
+        slim.increment((SlimCounter) null);
+        assertEquals(0, slim.getN());
+        assertEquals(Double.NaN, slim.getMean(),     0);
+        assertEquals(Double.NaN, slim.getVariance(), 0);
+        assertEquals(Double.NaN, slim.getStdDev(),   0);
+
+        slim.increment(5);
+        assertEquals(5, slim.getMean(),     0);
+        assertEquals(0, slim.getVariance(), 0);
+        slim.wipe();
+        assertEquals(0, slim.getN());
+    }
+
+    // ------------------------------------------
+
+}
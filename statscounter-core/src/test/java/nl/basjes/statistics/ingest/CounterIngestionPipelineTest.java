@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.ingest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nl.basjes.statistics.Counter;
+
+import org.junit.Test;
+
+public class CounterIngestionPipelineTest {
+
+    private static final int PRODUCERS         = 8;
+    private static final int VALUES_PER_THREAD = 50000;
+    private static final int KEYS              = 100;
+
+    // ------------------------------------------
+
+    @Test
+    public void testRingBuffer() {
+        final MpscRingBuffer<String> buffer = new MpscRingBuffer<String>(4);
+        assertTrue(buffer.isEmpty());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer("key" + i, i));
+        }
+        assertFalse(buffer.offer("full", 5));
+
+        final Counter counter = new Counter();
+        final MpscRingBuffer.Handler<String> handler = new MpscRingBuffer.Handler<String>() {
+            @Override
+            public void accept(final String key, final double value) {
+                assertEquals("key" + (int) value, key);
+                counter.increment(value);
+            }
+        };
+        assertEquals(3, buffer.drain(handler, 3));
+        assertTrue(buffer.offer("key3", 3));
+        assertEquals(2, buffer.drain(handler, 10));
+        assertTrue(buffer.isEmpty());
+        assertEquals(5, counter.getN());
+        assertEquals(9, counter.getSum(), 0);
+    }
+
+    // ------------------------------------------
+
+    private long produce(final CounterIngestionPipeline<String> pipeline) throws InterruptedException {
+        final AtomicLong accepted = new AtomicLong();
+        final Thread[] producers = new Thread[PRODUCERS];
+        for (int p = 0; p < PRODUCERS; p++) {
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < VALUES_PER_THREAD; i++) {
+                        if (pipeline.offer("key" + (i % KEYS), 1)) {
+                            accepted.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        pipeline.close();
+        return accepted.get();
+    }
+
+    // ------------------------------------------
+
+    private long total(final Map<String, Counter> snapshot) {
+        long total = 0;
+        for (Counter counter : snapshot.values()) {
+            total += counter.getN();
+        }
+        return total;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBlockingLosesNothing() throws InterruptedException {
+        final CounterIngestionPipeline<String> pipeline =
+            new CounterIngestionPipeline<String>(3, 64, OverloadPolicy.BLOCK, 10);
+        assertEquals(PRODUCERS * VALUES_PER_THREAD, produce(pipeline));
+
+        final Map<String, Counter> snapshot = pipeline.getSnapshot();
+        assertEquals(KEYS, snapshot.size());
+        assertEquals(0, pipeline.getDroppedCount());
+        assertEquals(PRODUCERS * VALUES_PER_THREAD, total(snapshot));
+        assertEquals(PRODUCERS * VALUES_PER_THREAD / KEYS, snapshot.get("key42").getN());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testDroppingIsCounted() throws InterruptedException {
+        final CounterIngestionPipeline<String> pipeline =
+            new CounterIngestionPipeline<String>(1, 2, OverloadPolicy.DROP, 10);
+        final long accepted = produce(pipeline);
+        assertEquals(accepted, total(pipeline.getSnapshot()));
+        assertEquals(PRODUCERS * VALUES_PER_THREAD, accepted + pipeline.getDroppedCount());
+    }
+
+    // ------------------------------------------
+
+    @Test(expected = IllegalStateException.class)
+    public void testClosed() throws InterruptedException {
+        final CounterIngestionPipeline<String> pipeline =
+            new CounterIngestionPipeline<String>(1, 16, OverloadPolicy.DROP, 10);
+        pipeline.close();
+        pipeline.offer("key", 1);
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import nl.basjes.statistics.Counter;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CounterBlockTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // ------------------------------------------
+
+    /**
+     * Per minute counters of a response time like measurement.
+     */
+    private static Counter[] createTimeSeries(final int records) {
+        final Random random = new Random(42);
+        final Counter[] counters = new Counter[records];
+        for (int record = 0; record < records; record++) {
+            final Counter counter = new Counter();
+            if (record % 97 != 0) { // Some empty minutes
+                final int count = 50 + random.nextInt(10);
+                for (int i = 0; i < count; i++) {
+                    counter.increment(Math.round(100 + random.nextGaussian() * 10));
+                }
+            }
+            counters[record] = counter;
+        }
+        return counters;
+    }
+
+    // ------------------------------------------
+
+    private File writeFile(final Counter[] counters, final int blockSize) throws IOException {
+        final File file = folder.newFile();
+        try (CounterBlockWriter writer = new CounterBlockWriter(new FileOutputStream(file), blockSize)) {
+            for (Counter counter : counters) {
+                writer.write(counter);
+            }
+        }
+        return file;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Counter[] counters = createTimeSeries(2500);
+        counters[1].increment(Double.POSITIVE_INFINITY);
+        counters[2].increment(-0.0);
+        counters[3].increment(Double.NaN);
+        counters[4].increment(Double.MAX_VALUE);
+        counters[4].increment(-Double.MIN_VALUE);
+
+        final File file = writeFile(counters, 1000);
+        try (CounterBlockReader reader = new CounterBlockReader(file)) {
+            assertEquals(3, reader.getBlockCount());
+            assertEquals(1000, reader.getRecordCount(0));
+            assertEquals(500, reader.getRecordCount(2));
+            assertEquals(2500, reader.getRecordCount());
+
+            final byte[] records = new byte[1000 * COUNTER_BYTES_SIZE];
+            int record = 0;
+            // Read out of order to check the random access
+            for (int block : new int[]{2, 0, 1}) {
+                final int count = reader.readBlock(block, records, 0);
+                record = block * 1000;
+                for (int i = 0; i < count; i++) {
+                    final byte[] expected = counters[record++].toBytes();
+                    final byte[] actual = new byte[COUNTER_BYTES_SIZE];
+                    System.arraycopy(records, i * COUNTER_BYTES_SIZE, actual, 0, COUNTER_BYTES_SIZE);
+                    assertArrayEquals("Record " + (record - 1), expected, actual);
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMerge() throws IOException {
+        final Counter[] counters = createTimeSeries(10000);
+        final Counter expected = new Counter();
+        for (Counter counter : counters) {
+            expected.increment(counter);
+        }
+
+        try (CounterBlockReader reader = new CounterBlockReader(writeFile(counters, 1024))) {
+            final Counter merged = reader.merge();
+            assertArrayEquals(expected.toBytes(), merged.toBytes());
+
+            final Counter lastBlock = new Counter();
+            reader.mergeBlock(reader.getBlockCount() - 1, lastBlock);
+            assertEquals(10000 - 9 * 1024, reader.getRecordCount(reader.getBlockCount() - 1));
+            final Counter expectedLastBlock = new Counter();
+            for (int record = 9 * 1024; record < 10000; record++) {
+                expectedLastBlock.increment(counters[record]);
+            }
+            assertArrayEquals(expectedLastBlock.toBytes(), lastBlock.toBytes());
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        try (CounterBlockReader reader = new CounterBlockReader(writeFile(new Counter[0], 10))) {
+            assertEquals(0, reader.getBlockCount());
+            assertEquals(0, reader.merge().getN());
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBadFile() throws IOException {
+        final File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[100]);
+        }
+        try {
+            new CounterBlockReader(file).close();
+            fail("A bad file must be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testCompressionAndSpeed() throws IOException {
+        final int records = 200000;
+        final Counter[] counters = createTimeSeries(records);
+
+        long start = System.nanoTime();
+        final File file = writeFile(counters, CounterBlockWriter.DEFAULT_BLOCK_SIZE);
+        final long writeNanos = System.nanoTime() - start;
+
+        final double bytesPerRecord = (double) file.length() / records;
+        assertTrue("Compressed to " + bytesPerRecord + " bytes/record",
+                   bytesPerRecord < COUNTER_BYTES_SIZE);
+
+        try (CounterBlockReader reader = new CounterBlockReader(file)) {
+            start = System.nanoTime();
+            final Counter merged = reader.merge();
+            final long mergeNanos = System.nanoTime() - start;
+            assertEquals(records, reader.getRecordCount());
+            assertTrue(merged.getN() > 0);
+
+            System.out.println(String.format(
+                "Block format: %5.1f bytes/record (raw %d), write %,12.0f records/s, merge %,12.0f records/s",
+                bytesPerRecord, COUNTER_BYTES_SIZE, records * 1e9 / writeNanos, records * 1e9 / mergeNanos));
+        }
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+import nl.basjes.statistics.Counter;
+
+import org.junit.Test;
+
+public class CounterReaderWriterTest {
+
+    private static final int RECORDS = 10000;
+
+    private static final String[] SPECIAL_KEYS = {
+        null, "", "simple", "with,comma", "with \"quotes\"", "back\\slash", "tab\there",
+        "café €", "emoji 😀", "/index.html?a=1&b=2",
+    };
+
+    // ------------------------------------------
+
+    private static String keyOf(final int record) {
+        if (record < SPECIAL_KEYS.length) {
+            return SPECIAL_KEYS[record];
+        }
+        return "key-" + record;
+    }
+
+    // ------------------------------------------
+
+    private static Counter[] createCounters() {
+        final Random random = new Random(42);
+        final Counter[] counters = new Counter[RECORDS];
+        for (int record = 0; record < RECORDS; record++) {
+            final Counter counter = new Counter();
+            switch (record % 7) {
+                case 0:
+                    break; // Empty
+                case 1:
+                    counter.increment(-0.0);
+                    break;
+                case 2:
+                    counter.increment(record);
+                    counter.increment(record * 2);
+                    break;
+                case 3:
+                    counter.increment(Double.MAX_VALUE);
+                    counter.increment(Double.MIN_VALUE);
+                    break;
+                case 4:
+                    counter.increment(Double.POSITIVE_INFINITY);
+                    break;
+                default:
+                    for (int i = 0; i < 5; i++) {
+                        counter.increment(random.nextGaussian() * Math.pow(10, random.nextInt(30) - 15));
+                    }
+                    break;
+            }
+            counters[record] = counter;
+        }
+        return counters;
+    }
+
+    // ------------------------------------------
+
+    private static byte[] write(final Counter[] counters, final CounterFormat format) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CounterWriter writer = new CounterWriter(Channels.newChannel(out), format);
+        try {
+            for (int record = 0; record < counters.length; record++) {
+                writer.write(keyOf(record), counters[record]);
+            }
+        } finally {
+            writer.close();
+        }
+        return out.toByteArray();
+    }
+
+    // ------------------------------------------
+
+    private void checkRoundTrip(final CounterFormat format) throws IOException {
+        final Counter[] counters = createCounters();
+        final byte[] bytes = write(counters, format);
+
+        final CounterReader reader = new CounterReader(new ByteArrayInputStream(bytes), format);
+        final Counter counter = new Counter();
+        for (int record = 0; record < RECORDS; record++) {
+            assertTrue(reader.next(counter));
+            final CharSequence key = reader.getKey();
+            if (keyOf(record) == null) {
+                assertNull(key);
+            } else {
+                assertEquals(keyOf(record), key.toString());
+            }
+            // Lossless: exactly the same bits
+            assertArrayEquals("Record " + record + " (" + format + ")", counters[record].toBytes(), counter.toBytes());
+        }
+        assertFalse(reader.next(counter));
+        reader.close();
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testJsonLines() throws IOException {
+        checkRoundTrip(CounterFormat.JSON_LINES);
+
+        final Counter counter = new Counter();
+        counter.increment(1);
+        counter.increment(2);
+        counter.increment(3);
+        assertEquals(counter.toString() + "\n", new String(write(new Counter[]{counter}, CounterFormat.JSON_LINES), "UTF-8"));
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testJsonNonFinite() throws IOException {
+        final Counter infinite = new Counter();
+        infinite.increment(Double.NEGATIVE_INFINITY);
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final CounterWriter writer = new CounterWriter(out, CounterFormat.JSON_LINES);
+        writer.write(null, new Counter());
+        writer.write("inf", infinite);
+        writer.close();
+        assertEquals(
+            "{\"n\":0,\"m2\":\"NaN\",\"sum\":\"NaN\",\"min\":\"NaN\",\"max\":\"NaN\"}\n" +
+            "{\"key\":\"inf\",\"n\":1,\"m2\":0.0,\"sum\":\"-Infinity\",\"min\":\"-Infinity\",\"max\":\"-Infinity\"}\n",
+            new String(out.toByteArray(), "UTF-8"));
+
+        // null is accepted as NaN
+        final CounterReader reader = new CounterReader(new ByteArrayInputStream(
+            "{\"n\":0,\"m2\":null,\"sum\":null,\"min\":null,\"max\":null}\n".getBytes("UTF-8")),
+            CounterFormat.JSON_LINES);
+        final Counter counter = new Counter();
+        assertTrue(reader.next(counter));
+        assertArrayEquals(new Counter().toBytes(), counter.toBytes());
+        reader.close();
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testCsv() throws IOException {
+        checkRoundTrip(CounterFormat.CSV);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBinary() throws IOException {
+        checkRoundTrip(CounterFormat.BINARY);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testForeignText() throws IOException {
+        final String text =
+            "{ \"max\": 3, \"min\": 1, \"extra\": 42, \"sum\": 6.0, \"m2\": 2e0, \"n\": 3, \"key\": \"a\\u0041\" }\r\n" +
+            "\n" +
+            "{\"n\":0}\n";
+        final CounterReader reader = new CounterReader(new ByteArrayInputStream(text.getBytes("UTF-8")), CounterFormat.JSON_LINES);
+        final Counter counter = new Counter();
+        assertTrue(reader.next(counter));
+        assertEquals("aA", reader.getKey().toString());
+        assertEquals("{\"n\":3,\"m2\":2.0,\"sum\":6.0,\"min\":1.0,\"max\":3.0}", counter.toString());
+        assertTrue(reader.next(counter));
+        assertNull(reader.getKey());
+        assertEquals(0, counter.getN());
+        assertFalse(reader.next(counter));
+        reader.close();
+
+        final String csv = "plain,1,0.0,5,5,5";
+        final CounterReader csvReader = new CounterReader(new ByteArrayInputStream(csv.getBytes("UTF-8")), CounterFormat.CSV);
+        assertTrue(csvReader.next(counter));
+        assertEquals("plain", csvReader.getKey().toString());
+        assertEquals(5, counter.getMean(), 0);
+        assertFalse(csvReader.next(counter));
+        csvReader.close();
+    }
+
+    // ------------------------------------------
+
+    private static void assertRejected(final byte[] bytes, final CounterFormat format) {
+        final CounterReader reader = new CounterReader(new ByteArrayInputStream(bytes), format);
+        try {
+            reader.next(new Counter());
+            fail("Malformed input must be rejected (" + format + ")");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMalformedJsonKeys() throws IOException {
+        final String[] malformed = {
+            "{\"key\":\"ab\\",                   // Escape at the end of the line
+            "{\"key\":\"ab\\u00",                // Truncated unicode escape
+            "{\"key\":\"ab\\u00zz\",\"n\":0}",   // Invalid hex digits
+            "{\"key\":\"ab\\q\",\"n\":0}",       // Unknown escape
+            "{\"key\":nul",                      // Truncated null
+            "{\"key\":nope,\"n\":0}",            // Not null
+            "{\"key\":42,\"n\":0}",              // Not a string
+        };
+        for (String line : malformed) {
+            assertRejected(line.getBytes("UTF-8"), CounterFormat.JSON_LINES);
+        }
+
+        final CounterReader reader = new CounterReader(new ByteArrayInputStream(
+            "{\"key\":\"\\\"\\\\\\/\\u00e9\",\"n\":0}\n".getBytes("UTF-8")), CounterFormat.JSON_LINES);
+        assertTrue(reader.next(new Counter()));
+        assertEquals("\"\\/\u00e9", reader.getKey().toString());
+        reader.close();
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testCorruptBinaryKeyLength() throws IOException {
+        final byte[] record = write(new Counter[]{new Counter()}, CounterFormat.BINARY);
+        for (int keyLength : new int[]{-2, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE - 3,
+                                       CounterFormat.MAX_BINARY_KEY_LENGTH + 1}) {
+            final byte[] corrupt = record.clone();
+            corrupt[0] = (byte) (keyLength >>> 24);
+            corrupt[1] = (byte) (keyLength >>> 16);
+            corrupt[2] = (byte) (keyLength >>>  8);
+            corrupt[3] = (byte) (keyLength       );
+            assertRejected(corrupt, CounterFormat.BINARY);
+        }
+
+        final StringBuilder longKey = new StringBuilder();
+        while (longKey.length() <= CounterFormat.MAX_BINARY_KEY_LENGTH) {
+            longKey.append("0123456789");
+        }
+        final CounterWriter writer = new CounterWriter(new ByteArrayOutputStream(), CounterFormat.BINARY);
+        try {
+            writer.write(longKey, new Counter());
+            fail("A key that is too long must be rejected");
+        } catch (IOException e) {
+            // Expected
+        }
+        writer.close();
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testThroughput() throws IOException {
+        final Counter[] counters = createCounters();
+        final int rounds = 5;
+        for (CounterFormat format : CounterFormat.values()) {
+            final byte[] bytes = write(counters, format);
+
+            final long writeStart = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                write(counters, format);
+            }
+            final long writeNanos = System.nanoTime() - writeStart;
+
+            final Counter counter = new Counter();
+            final long readStart = System.nanoTime();
+            for (int round = 0; round < rounds; round++) {
+                final CounterReader reader = new CounterReader(new ByteArrayInputStream(bytes), format);
+                while (reader.next(counter)) {
+                    reader.getKey();
+                }
+                reader.close();
+            }
+            final long readNanos = System.nanoTime() - readStart;
+
+            System.out.println(String.format("%-10s: %6.1f bytes/record, write %,12.0f records/s, read %,12.0f records/s",
+                format, (double) bytes.length / RECORDS,
+                1e9 * rounds * RECORDS / writeNanos,
+                1e9 * rounds * RECORDS / readNanos));
+        }
+    }
+
+    // ------------------------------------------
+
+}
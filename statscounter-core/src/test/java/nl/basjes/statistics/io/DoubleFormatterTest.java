@@ -0,0 +1,136 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.statistics.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class DoubleFormatterTest {
+
+    private final byte[] buffer = new byte[DoubleFormatter.MAX_LENGTH];
+
+    // ------------------------------------------
+
+    /**
+     * @return The formatted value or null if the formatter could not prove the shortest digits
+     */
+    private String format(final double value) throws UnsupportedEncodingException {
+        final int end = DoubleFormatter.format(value, buffer, 0);
+        if (end < 0) {
+            return null;
+        }
+        return new String(buffer, 0, end, "US-ASCII");
+    }
+
+    // ------------------------------------------
+
+    private static int significantDigits(final String text) {
+        int digits = 0;
+        boolean leading = true;
+        int trailingZeros = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == 'E') {
+                break;
+            }
+            if (c < '0' || c > '9' || (leading && c == '0')) {
+                continue;
+            }
+            leading = false;
+            digits++;
+            trailingZeros = c == '0' ? trailingZeros + 1 : 0;
+        }
+        return Math.max(1, digits - trailingZeros);
+    }
+
+    // ------------------------------------------
+
+    private void check(final String expected, final double value) throws UnsupportedEncodingException {
+        final String text = format(value);
+        if (text != null) { // Else Double.toString is used
+            assertEquals(expected, text);
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testKnownValues() throws UnsupportedEncodingException {
+        check("0.0",                    0.0);
+        check("-0.0",                   -0.0);
+        check("1.0",                    1.0);
+        check("-1.0",                   -1.0);
+        check("0.1",                    0.1);
+        check("0.30000000000000004",    0.1 + 0.2);
+        check("0.3333333333333333",     1.0 / 3);
+        check("123.456",                123.456);
+        check("1234567.0",              1234567.0);
+        check("1.2345678E7",            12345678.0);
+        check("0.001",                  0.001);
+        check("1.234E-4",               0.0001234);
+        check("1.0E7",                  1e7);
+        check("1.0E-7",                 1e-7);
+        check("1.0E23",                 1e23);
+        check("5.0E-324",               Double.MIN_VALUE);  // Double.toString gives the longer 4.9E-324
+        check("2.2250738585072014E-308", Double.MIN_NORMAL);
+        check("1.7976931348623157E308", Double.MAX_VALUE);
+        check("3.141592653589793",      Math.PI);
+        check("9.007199254740992E15",   9007199254740993.0);
+        check("-2.5E-300",              -2.5e-300);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testRandomValues() throws UnsupportedEncodingException {
+        final Random random = new Random(42);
+        final int values = 1000000;
+        int fallbacks = 0;
+        for (int i = 0; i < values; i++) {
+            final double value;
+            switch (i % 3) {
+                case 0:  value = Double.longBitsToDouble(random.nextLong()); break;
+                case 1:  value = random.nextGaussian() * Math.pow(10, random.nextInt(40) - 20); break;
+                default: value = random.nextInt(100000) / 100.0; break;
+            }
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                continue;
+            }
+            final String text = format(value);
+            if (text == null) {
+                fallbacks++;
+                continue;
+            }
+            // Exactly the same value when read back ...
+            assertEquals(text, Double.doubleToLongBits(value), Double.doubleToLongBits(Double.parseDouble(text)));
+            // ... and never longer than what Double.toString produces
+            assertTrue(text + " vs " + Double.toString(value),
+                significantDigits(text) <= significantDigits(Double.toString(value)));
+        }
+        System.out.println("Double.toString fallback needed for " + fallbacks + " of " + values + " values");
+        assertTrue("Too many fallbacks: " + fallbacks, fallbacks < values / 100);
+    }
+
+    // ------------------------------------------
+
+}
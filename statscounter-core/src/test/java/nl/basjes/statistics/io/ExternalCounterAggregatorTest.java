@@ -0,0 +1,152 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import nl.basjes.statistics.Counter;
+import nl.basjes.statistics.KeyedCounterSink;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ExternalCounterAggregatorTest {
+
+    private static final double MAX_ERROR = 0.0000001;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // ------------------------------------------
+
+    /**
+     * Checks that the keys arrive sorted and collects the counters.
+     */
+    private static final class SortedCollector implements KeyedCounterSink<String> {
+        private final Map<String, Counter> result = new HashMap<String, Counter>();
+        private String previous = null;
+
+        @Override
+        public void accept(final String key, final byte[] bytes) {
+            assertTrue(previous == null || previous.compareTo(key) < 0);
+            previous = key;
+            assertNull("Duplicate key " + key, result.put(key, new Counter(bytes)));
+        }
+    }
+
+    // ------------------------------------------
+
+    private void runAggregation(final int keys, final int records, final int maxEntries, final int mergeFactor)
+        throws IOException {
+        final File spillDirectory = folder.newFolder();
+        final Map<String, Counter> expected = new HashMap<String, Counter>();
+        final Random random = new Random(42);
+
+        final SortedCollector collector = new SortedCollector();
+        final long start = System.nanoTime();
+        try (ExternalCounterAggregator aggregator =
+                 new ExternalCounterAggregator(spillDirectory, maxEntries, mergeFactor)) {
+            for (int record = 0; record < records; record++) {
+                final String key   = "/page/" + random.nextInt(keys) + ".html";
+                final double value = random.nextInt(1000) * 0.25;
+                aggregator.increment(key, value);
+                Counter counter = expected.get(key);
+                if (counter == null) {
+                    counter = new Counter();
+                    expected.put(key, counter);
+                }
+                counter.increment(value);
+                assertTrue(aggregator.getMemoryEntries() <= maxEntries);
+            }
+            aggregator.finish(collector);
+            final long nanos = System.nanoTime() - start;
+
+            assertEquals(expected.size(), aggregator.getOutputRecords());
+            if (keys > maxEntries) {
+                assertTrue(aggregator.getSpillCount() > 0);
+                assertTrue(aggregator.getSpilledBytes() > 0);
+                assertTrue(aggregator.getMergedRecords() >= aggregator.getSpilledRecords());
+            } else {
+                assertEquals(0, aggregator.getSpillCount());
+            }
+            System.out.println(String.format(
+                "External aggregation of %,d records: %d spills (%,d records, %,d bytes), %d merge passes, " +
+                "%,d records merged, %,.0f records/s",
+                records, aggregator.getSpillCount(), aggregator.getSpilledRecords(), aggregator.getSpilledBytes(),
+                aggregator.getMergePasses(), aggregator.getMergedRecords(), records * 1e9 / nanos));
+        }
+
+        assertEquals(expected.size(), collector.result.size());
+        for (Map.Entry<String, Counter> entry : expected.entrySet()) {
+            final Counter actual = collector.result.get(entry.getKey());
+            final Counter wanted = entry.getValue();
+            assertEquals(wanted.getN(),        actual.getN());
+            assertEquals(wanted.getSum(),      actual.getSum(),      MAX_ERROR);
+            assertEquals(wanted.getMin(),      actual.getMin(),      0);
+            assertEquals(wanted.getMax(),      actual.getMax(),      0);
+            assertEquals(wanted.getVariance(), actual.getVariance(), MAX_ERROR);
+        }
+        assertEquals("All runs must have been removed", 0, spillDirectory.listFiles().length);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testInMemoryOnly() throws IOException {
+        runAggregation(100, 10000, 1000, 4);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSpillAndMerge() throws IOException {
+        runAggregation(5000, 50000, 1000, 64);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMultiPassMerge() throws IOException {
+        runAggregation(20000, 200000, 500, 4);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testCloseRemovesRuns() throws IOException {
+        final File spillDirectory = folder.newFolder();
+        final ExternalCounterAggregator aggregator = new ExternalCounterAggregator(spillDirectory, 2);
+        for (int i = 0; i < 10; i++) {
+            aggregator.increment("key" + i, i);
+        }
+        assertTrue(spillDirectory.listFiles().length > 0);
+        aggregator.close();
+        assertEquals(0, spillDirectory.listFiles().length);
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Callable;
+
+import nl.basjes.statistics.Counter;
+
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+
+    private static final double MAX_ERROR = 0.0001;
+
+    // ------------------------------------------
+
+    @Test
+    public void testTimer() throws Exception {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Timer timer = registry.timer("request_seconds");
+        assertSame(timer, registry.timer("request_seconds"));
+
+        timer.time(new Runnable() {
+            @Override
+            public void run() {
+                // Nothing
+            }
+        });
+
+        assertEquals("Result", timer.time(new Callable<String>() {
+            @Override
+            public String call() {
+                return "Result";
+            }
+        }));
+
+        final Stopwatch stopwatch = timer.newStopwatch();
+        for (int i = 0; i < 3; i++) {
+            try (Stopwatch s = stopwatch.start()) {
+                assertSame(stopwatch, s);
+            }
+        }
+
+        timer.update(2000000000L);
+
+        final Counter counter = timer.snapshot();
+        assertEquals(6, counter.getN());
+        assertEquals(2.0, counter.getMax(), MAX_ERROR);
+        assertTrue(counter.getMin() >= 0);
+
+        timer.reset();
+        assertEquals(0, timer.snapshot().getN());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testPrometheusText() throws Exception {
+        final MetricsRegistry registry = new MetricsRegistry();
+        final Gauge gauge = registry.gauge("queue_size");
+        gauge.update(1);
+        gauge.update(2);
+        gauge.update(3);
+        registry.gauge("empty");
+
+        final StringWriter text = new StringWriter();
+        registry.writePrometheus(text);
+
+        assertEquals(
+            "# TYPE empty summary\n" +
+            "empty_count 0\n" +
+            "empty_sum 0\n" +
+            "# TYPE empty_min gauge\n" +
+            "empty_min NaN\n" +
+            "# TYPE empty_max gauge\n" +
+            "empty_max NaN\n" +
+            "# TYPE empty_mean gauge\n" +
+            "empty_mean NaN\n" +
+            "# TYPE empty_stddev gauge\n" +
+            "empty_stddev NaN\n" +
+            "# TYPE queue_size summary\n" +
+            "queue_size_count 3\n" +
+            "queue_size_sum 6\n" +
+            "# TYPE queue_size_min gauge\n" +
+            "queue_size_min 1\n" +
+            "# TYPE queue_size_max gauge\n" +
+            "queue_size_max 3\n" +
+            "# TYPE queue_size_mean gauge\n" +
+            "queue_size_mean 2\n" +
+            "# TYPE queue_size_stddev gauge\n" +
+            "queue_size_stddev 1\n",
+            text.toString());
+    }
+
+    // ------------------------------------------
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongType() {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.timer("something");
+        registry.gauge("something");
+    }
+
+    // ------------------------------------------
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadName() {
+        new MetricsRegistry().timer("bad name");
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testHttpEndpoint() throws Exception {
+        final MetricsRegistry registry = new MetricsRegistry();
+        registry.gauge("answer").update(42);
+
+        final PrometheusHttpEndpoint endpoint = new PrometheusHttpEndpoint(registry, 0);
+        endpoint.start();
+        try {
+            final URL url = new URL("http://127.0.0.1:" + endpoint.getPort() + "/metrics");
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+            assertTrue(connection.getContentType().startsWith("text/plain"));
+
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            final InputStream in = connection.getInputStream();
+            try {
+                final byte[] buffer = new byte[4096];
+                int read;
+                while ((read = in.read(buffer)) > 0) {
+                    body.write(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            assertTrue(body.toString("UTF-8").contains("\nanswer_max 42\n"));
+        } finally {
+            endpoint.stop();
+        }
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nl.basjes.statistics.Counter;
+
+import org.junit.Test;
+
+public class CounterAggregationServerTest {
+
+    private static InetSocketAddress address(final CounterAggregationServer server) {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testMergeAndSnapshot() throws IOException {
+        try (CounterAggregationServer server = new CounterAggregationServer(0, 2, 4)) {
+            server.start();
+            final Counter expectedA = new Counter();
+            final Counter expectedB = new Counter();
+            try (CounterAggregationClient client = new CounterAggregationClient(address(server))) {
+                for (int i = 0; i < 1000; i++) {
+                    final Counter counter = new Counter();
+                    counter.increment(i);
+                    counter.increment(i * 0.5);
+                    final String key = i % 3 == 0 ? "a" : "bé €";
+                    (i % 3 == 0 ? expectedA : expectedB).increment(counter);
+                    client.merge(key, counter);
+                }
+                final Map<String, Counter> snapshot = client.snapshot();
+                assertEquals(2, snapshot.size());
+                assertArrayEquals(expectedA.toBytes(), snapshot.get("a").toBytes());
+                assertArrayEquals(expectedB.toBytes(), snapshot.get("bé €").toBytes());
+            }
+            assertEquals(1000, server.getMergeCount());
+            assertArrayEquals(expectedA.toBytes(), server.snapshot().get("a").toBytes());
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBadClientIsDropped() throws IOException {
+        try (CounterAggregationServer server = new CounterAggregationServer(0, 1, 1)) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                final OutputStream out = socket.getOutputStream();
+                out.write(new byte[]{0, 0, 0, 1, 42}); // Unknown frame type
+                out.flush();
+                assertEquals("The server must close the connection", -1, socket.getInputStream().read());
+            }
+
+            // Other clients are not affected
+            try (CounterAggregationClient client = new CounterAggregationClient(address(server))) {
+                final Counter counter = new Counter();
+                counter.increment(1);
+                client.merge("key", counter);
+                assertEquals(1, client.snapshot().get("key").getN());
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    private static byte[] record(final byte[] key, final int keyLength) {
+        final Counter counter = new Counter();
+        counter.increment(1);
+        return ByteBuffer.allocate(2 + key.length + Counter.COUNTER_BYTES_SIZE)
+            .putShort((short) keyLength).put(key).put(counter.toBytes()).array();
+    }
+
+    // ------------------------------------------
+
+    private static byte[] mergeFrame(final int records, final byte[]... payloads) {
+        int length = 1 + 4;
+        for (byte[] payload : payloads) {
+            length += payload.length;
+        }
+        final ByteBuffer frame = ByteBuffer.allocate(4 + length);
+        frame.putInt(length).put(Protocol.MERGE).putInt(records);
+        for (byte[] payload : payloads) {
+            frame.put(payload);
+        }
+        return frame.array();
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testInvalidMergeFramesChangeNothing() throws IOException {
+        final byte[] good = record("good".getBytes("UTF-8"), 4);
+        final byte[][] frames = {
+            mergeFrame(-1, good),                                            // Negative count
+            mergeFrame(1, good, new byte[]{1, 2, 3}),                        // Trailing bytes
+            mergeFrame(2, good, new byte[]{0, 4, 'b', 'a', 'd'}),            // Last record is truncated
+            mergeFrame(3, good, good),                                       // Fewer records than announced
+            mergeFrame(2, good, record(new byte[]{'b', (byte) 0xC3}, 2)),   // Invalid UTF-8 (cut sequence)
+            mergeFrame(2, good, record(new byte[]{(byte) 0xFF, 'x'}, 2)),   // Invalid UTF-8
+            mergeFrame(1, record(new byte[0xFFFF], 0xFFFF)),                 // Key longer than MAX_KEY_LENGTH
+        };
+
+        try (CounterAggregationServer server = new CounterAggregationServer(0, 1, 1)) {
+            server.start();
+            for (byte[] frame : frames) {
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                    final OutputStream out = socket.getOutputStream();
+                    out.write(frame);
+                    out.flush();
+                    assertEquals("The server must close the connection", -1, socket.getInputStream().read());
+                }
+                assertEquals(0, server.getMergeCount());
+                assertTrue(server.snapshot().isEmpty());
+            }
+
+            // A valid frame is still accepted
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+                final OutputStream out = socket.getOutputStream();
+                out.write(mergeFrame(2, good, good));
+                out.write(new byte[]{0, 0, 0, 1, Protocol.SNAPSHOT});
+                out.flush();
+                assertTrue(socket.getInputStream().read() >= 0); // The response
+            }
+            assertEquals(2, server.getMergeCount());
+            assertEquals(2, server.snapshot().get("good").getN());
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testManyProducers() throws Exception {
+        final int producers = 4;
+        final int keys      = 1000;
+        final int records   = 250000;
+
+        try (CounterAggregationServer server = new CounterAggregationServer(0, 2, 16)) {
+            server.start();
+            final InetSocketAddress address = address(server);
+            final ExecutorService executor = Executors.newFixedThreadPool(producers);
+            final List<Future<Void>> futures = new ArrayList<>();
+            final long start = System.nanoTime();
+            for (int producer = 0; producer < producers; producer++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws IOException {
+                        final Counter counter = new Counter();
+                        counter.increment(1);
+                        final byte[] bytes = counter.toBytes();
+                        try (CounterAggregationClient client = new CounterAggregationClient(address)) {
+                            for (int record = 0; record < records; record++) {
+                                client.merge("key-" + (record % keys), bytes);
+                            }
+                            client.snapshot(); // Wait until everything has been merged
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            final long nanos = System.nanoTime() - start;
+            executor.shutdown();
+
+            final Map<String, Counter> snapshot = server.snapshot();
+            assertEquals(keys, snapshot.size());
+            long total = 0;
+            for (Counter counter : snapshot.values()) {
+                assertEquals(producers * records / keys, counter.getN());
+                total += counter.getN();
+            }
+            assertEquals((long) producers * records, total);
+            assertEquals((long) producers * records, server.getMergeCount());
+            assertTrue(snapshot.get("key-1").getStdDev() == 0);
+
+            System.out.println(String.format("Aggregation server: %,12.0f merges/s over loopback",
+                                             producers * records * 1e9 / nanos));
+        }
+    }
+
+    // ------------------------------------------
+
+}
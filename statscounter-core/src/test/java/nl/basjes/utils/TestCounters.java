@@ -0,0 +1,77 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package nl.basjes.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import nl.basjes.statistics.InvertibleCounter;
+import nl.basjes.statistics.StatisticsCounter;
+
+/**
+ * The check that two counters hold the same statistics, shared by the tests of all modules.
+ */
+public final class TestCounters {
+
+    /**
+     * A different merge order or representation changes the rounding of the floating point values,
+     * so they may differ by this fraction (an absolute difference for values between -1 and 1).
+     */
+    public static final double MAX_RELATIVE_ERROR = 0.000001;
+
+    private TestCounters() {
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The count must be the same, all other statistics must be the same within {@link #MAX_RELATIVE_ERROR}.
+     * The min and max of an {@link InvertibleCounter} are only compared if they are exact.
+     */
+    public static void assertSameStatistics(final StatisticsCounter expected, final StatisticsCounter actual) {
+        assertEquals("n", expected.getN(), actual.getN());
+        if (expected.getN() == 0) {
+            return; // Everything else is NaN
+        }
+        assertClose("sum",      expected.getSum(),      actual.getSum());
+        assertClose("mean",     expected.getMean(),     actual.getMean());
+        assertClose("variance", expected.getVariance(), actual.getVariance());
+        assertClose("stddev",   expected.getStdDev(),   actual.getStdDev());
+        if (isMinMaxExact(expected) && isMinMaxExact(actual)) {
+            assertClose("min",  expected.getMin(),      actual.getMin());
+            assertClose("max",  expected.getMax(),      actual.getMax());
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Compares a single value with the tolerance of {@link #assertSameStatistics}.
+     */
+    public static void assertClose(final String name, final double expected, final double actual) {
+        assertEquals(name, expected, actual, MAX_RELATIVE_ERROR * Math.max(1.0, Math.abs(expected)));
+    }
+
+    // ------------------------------------------
+
+    private static boolean isMinMaxExact(final StatisticsCounter counter) {
+        return !(counter instanceof InvertibleCounter) || ((InvertibleCounter) counter).isMinMaxExact();
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import nl.basjes.statistics.DataSerializable;
+
+public final class TestDataSerializable {
+
+    private TestDataSerializable() {
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Converts an instance of DataSerializable into a byte[].
+     * @param serializable
+     * @return
+     * @throws IOException
+     */
+    public static byte[] serialize(DataSerializable serializable) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        try {
+            serializable.write(dataOut);
+            dataOut.flush();
+            return out.toByteArray();
+        } finally {
+            dataOut.close();
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Converts a byte[] back into an instance of the specified class (assuming it was created with the above method serialize).
+     * @param bytes
+     * @param clazz
+     * @return
+     * @throws IOException
+     */
+    public static <T extends DataSerializable> T deserialize(byte[] bytes, Class<T> clazz) throws IOException {
+        T result = null;
+        DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            result = clazz.newInstance();
+            result.readFields(dataIn);
+        } catch (InstantiationException e) {
+            // should not happen
+            assert false;
+        } catch (IllegalAccessException e) {
+            // should not happen
+            assert false;
+        } finally {
+            dataIn.close();
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.flink;
+
+import nl.basjes.statistics.Counter;
+
+import org.apache.flink.api.common.functions.AggregateFunction;
+
+/**
+ * A Flink AggregateFunction that aggregates values into a {@link Counter} using its associative merge.
+ * Pass {@link CounterTypeInfo#INSTANCE} as the accumulator and result type so the 40 byte form is used, i.e.
+ * <pre>
+ *   stream.keyBy(...).window(...)
+ *         .aggregate(new CounterAggregateFunction(), CounterTypeInfo.INSTANCE, CounterTypeInfo.INSTANCE)
+ * </pre>
+ */
+public class CounterAggregateFunction implements AggregateFunction<Double, Counter, Counter> {
+
+    private static final long serialVersionUID = 1L;
+
+    // ------------------------------------------
+
+    @Override
+    public Counter createAccumulator() {
+        return new Counter();
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter add(final Double value, final Counter accumulator) {
+        if (value != null) {
+            accumulator.increment(value);
+        }
+        return accumulator;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter getResult(final Counter accumulator) {
+        return accumulator;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter merge(final Counter a, final Counter b) {
+        a.increment(b);
+        return a;
+    }
+
+    // ------------------------------------------
+
+}
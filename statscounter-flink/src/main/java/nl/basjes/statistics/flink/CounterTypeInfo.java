@@ -0,0 +1,116 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.flink;
+
+import nl.basjes.statistics.Counter;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeinfo.TypeInformation;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+
+/**
+ * Makes Flink use the {@link CounterTypeSerializer} for {@link Counter}s, i.e.
+ * <pre>
+ *   stream.map(...).returns(CounterTypeInfo.INSTANCE)
+ * </pre>
+ */
+public final class CounterTypeInfo extends TypeInformation<Counter> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final CounterTypeInfo INSTANCE = new CounterTypeInfo();
+
+    // ------------------------------------------
+
+    @Override
+    public boolean isBasicType() {
+        return false;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public boolean isTupleType() {
+        return false;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public int getArity() {
+        return 1;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public int getTotalFields() {
+        return 1;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Class<Counter> getTypeClass() {
+        return Counter.class;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public boolean isKeyType() {
+        return false;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public TypeSerializer<Counter> createSerializer(final ExecutionConfig config) {
+        return CounterTypeSerializer.INSTANCE;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public String toString() {
+        return "CounterTypeInfo";
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public boolean equals(final Object obj) {
+        return obj instanceof CounterTypeInfo;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public int hashCode() {
+        return CounterTypeInfo.class.hashCode();
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public boolean canEqual(final Object obj) {
+        return obj instanceof CounterTypeInfo;
+    }
+
+    // ------------------------------------------
+
+}
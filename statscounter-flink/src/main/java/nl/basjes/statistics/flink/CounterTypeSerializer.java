@@ -0,0 +1,135 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.flink;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import nl.basjes.statistics.Counter;
+
+import org.apache.flink.api.common.typeutils.SimpleTypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.TypeSerializerSnapshot;
+import org.apache.flink.api.common.typeutils.base.TypeSerializerSingleton;
+import org.apache.flink.core.memory.DataInputView;
+import org.apache.flink.core.memory.DataOutputView;
+
+/**
+ * A Flink TypeSerializer that writes a {@link Counter} in its fixed 40 byte form (see {@link Counter#toBytes()})
+ * instead of falling back to the generic Kryo serialization.
+ * Use it via {@link CounterTypeInfo}.
+ */
+public final class CounterTypeSerializer extends TypeSerializerSingleton<Counter> {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final CounterTypeSerializer INSTANCE = new CounterTypeSerializer();
+
+    // ------------------------------------------
+
+    @Override
+    public boolean isImmutableType() {
+        return false;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter createInstance() {
+        return new Counter();
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter copy(final Counter from) {
+        return new Counter(from.toBytes());
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter copy(final Counter from, final Counter reuse) {
+        reuse.setBytes(from.toBytes());
+        return reuse;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public int getLength() {
+        return COUNTER_BYTES_SIZE;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void serialize(final Counter record, final DataOutputView target) throws IOException {
+        record.write(target);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter deserialize(final DataInputView source) throws IOException {
+        final Counter counter = new Counter();
+        counter.readFields(source);
+        return counter;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter deserialize(final Counter reuse, final DataInputView source) throws IOException {
+        reuse.readFields(source);
+        return reuse;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void copy(final DataInputView source, final DataOutputView target) throws IOException {
+        target.write(source, COUNTER_BYTES_SIZE);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public TypeSerializerSnapshot<Counter> snapshotConfiguration() {
+        return new CounterSerializerSnapshot();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * The (stateless) configuration snapshot, needed when Counters are part of the managed state.
+     */
+    public static final class CounterSerializerSnapshot extends SimpleTypeSerializerSnapshot<Counter> {
+        public CounterSerializerSnapshot() {
+            super(new Supplier<CounterTypeSerializer>() {
+                @Override
+                public CounterTypeSerializer get() {
+                    return INSTANCE;
+                }
+            });
+        }
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.flink;
+
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nl.basjes.statistics.Counter;
+
+import org.apache.flink.api.common.ExecutionConfig;
+import org.apache.flink.api.common.typeutils.TypeSerializer;
+import org.apache.flink.api.java.functions.KeySelector;
+import org.apache.flink.api.java.typeutils.runtime.kryo.KryoSerializer;
+import org.apache.flink.core.memory.DataInputDeserializer;
+import org.apache.flink.core.memory.DataOutputSerializer;
+import org.apache.flink.streaming.api.environment.StreamExecutionEnvironment;
+import org.apache.flink.util.CloseableIterator;
+import org.junit.Test;
+
+public class CounterFlinkTest {
+
+    private static Counter createCounter(final Random random) {
+        final Counter counter = new Counter();
+        for (int i = 0; i < 1 + random.nextInt(10); i++) {
+            counter.increment(random.nextGaussian() * 100);
+        }
+        return counter;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSerializer() throws IOException {
+        final CounterTypeSerializer serializer = CounterTypeSerializer.INSTANCE;
+        final Counter counter = createCounter(new Random(42));
+
+        final DataOutputSerializer out = new DataOutputSerializer(64);
+        serializer.serialize(counter, out);
+        serializer.serialize(new Counter(), out);
+        assertEquals(2 * Counter.COUNTER_BYTES_SIZE, out.length());
+        assertEquals(Counter.COUNTER_BYTES_SIZE, serializer.getLength());
+
+        final DataInputDeserializer in = new DataInputDeserializer(out.getCopyOfBuffer());
+        assertEquals(counter.toString(), serializer.deserialize(in).toString());
+        final Counter reuse = createCounter(new Random(1));
+        assertSame(reuse, serializer.deserialize(reuse, in));
+        assertEquals(0, reuse.getN());
+
+        final Counter copy = serializer.copy(counter);
+        assertNotSame(counter, copy);
+        assertEquals(counter.toString(), copy.toString());
+
+        final TypeSerializer<Counter> restored = serializer.snapshotConfiguration().restoreSerializer();
+        assertSame(serializer, restored);
+        assertSame(serializer, CounterTypeInfo.INSTANCE.createSerializer(new ExecutionConfig()));
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testNullValuesAreSkipped() {
+        final CounterAggregateFunction function = new CounterAggregateFunction();
+        final Counter accumulator = function.createAccumulator();
+        assertSame(accumulator, function.add(null, accumulator));
+        assertEquals(0, accumulator.getN());
+
+        function.add(1.0, accumulator);
+        function.add(null, accumulator);
+        function.add(3.0, accumulator);
+        assertEquals(2, accumulator.getN());
+        assertEquals(4.0, accumulator.getSum(), 0);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testLocalAggregation() throws Exception {
+        final int keys   = 4;
+        final int values = 10000;
+        final List<Double> input = new ArrayList<>(values);
+        final Counter[] expected = new Counter[keys];
+        for (int key = 0; key < keys; key++) {
+            expected[key] = new Counter();
+        }
+        for (int i = 0; i < values; i++) {
+            input.add((double) i);
+            expected[i % keys].increment(i);
+        }
+
+        final StreamExecutionEnvironment env = StreamExecutionEnvironment.createLocalEnvironment(2);
+        final List<Counter> results = new ArrayList<>();
+        try (CloseableIterator<Counter> iterator = env
+                .fromCollection(input)
+                .keyBy(new KeySelector<Double, Integer>() {
+                    private static final long serialVersionUID = 1L;
+                    @Override
+                    public Integer getKey(final Double value) {
+                        return value.intValue() % keys;
+                    }
+                })
+                .countWindow(values / keys)
+                .aggregate(new CounterAggregateFunction(), CounterTypeInfo.INSTANCE, CounterTypeInfo.INSTANCE)
+                .executeAndCollect()) {
+            while (iterator.hasNext()) {
+                results.add(iterator.next());
+            }
+        }
+
+        assertEquals(keys, results.size());
+        for (Counter result : results) {
+            assertSameStatistics(expected[(int) result.getMin() % keys], result);
+        }
+    }
+
+    // ------------------------------------------
+
+    private static final int BENCHMARK_RECORDS = 200000;
+    private static final int BENCHMARK_ROUNDS  = 5;
+
+    /**
+     * @return The number of bytes per record
+     */
+    private double benchmark(final String name, final TypeSerializer<Counter> serializer, final Counter[] counters)
+        throws IOException {
+        final DataOutputSerializer out = new DataOutputSerializer(BENCHMARK_RECORDS * 64);
+        long writeNanos = Long.MAX_VALUE;
+        long readNanos  = Long.MAX_VALUE;
+        Counter last = null;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            out.clear();
+            long start = System.nanoTime();
+            for (int record = 0; record < BENCHMARK_RECORDS; record++) {
+                serializer.serialize(counters[record % counters.length], out);
+            }
+            writeNanos = Math.min(writeNanos, System.nanoTime() - start);
+
+            final DataInputDeserializer in = new DataInputDeserializer(out.getSharedBuffer(), 0, out.length());
+            start = System.nanoTime();
+            for (int record = 0; record < BENCHMARK_RECORDS; record++) {
+                last = serializer.deserialize(in);
+            }
+            readNanos = Math.min(readNanos, System.nanoTime() - start);
+        }
+        assertEquals(counters[(BENCHMARK_RECORDS - 1) % counters.length].toString(), last.toString());
+        System.out.println(String.format("Flink %-24s: %5.1f bytes/record, write %,12.0f records/s, read %,12.0f records/s",
+            name, out.length() / (double) BENCHMARK_RECORDS,
+            BENCHMARK_RECORDS * 1e9 / writeNanos, BENCHMARK_RECORDS * 1e9 / readNanos));
+        return out.length() / (double) BENCHMARK_RECORDS;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBenchmark() throws IOException {
+        final Random random = new Random(42);
+        final Counter[] counters = new Counter[1000];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = createCounter(random);
+        }
+        final double counterSize = benchmark("CounterTypeSerializer", CounterTypeSerializer.INSTANCE, counters);
+        // What Flink uses for a Counter by default (it is not a POJO so it becomes a generic type)
+        final double kryoSize = benchmark("KryoSerializer (default)",
+                                          new KryoSerializer<>(Counter.class, new ExecutionConfig()), counters);
+        assertTrue(counterSize < kryoSize);
+    }
+
+    // ------------------------------------------
+
+}
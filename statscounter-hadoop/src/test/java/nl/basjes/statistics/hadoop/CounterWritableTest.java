@@ -0,0 +1,63 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.hadoop;
+
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+
+import nl.basjes.statistics.Counter;
+import nl.basjes.utils.TestWritableInterface;
+
+import org.junit.Test;
+
+public class CounterWritableTest {
+
+    @Test
+    public void testCounterWritability() throws IOException {
+        final CounterWritable counter = new CounterWritable();
+        counter.increment(1);
+        counter.increment(2);
+        counter.increment(3);
+        counter.increment(0);
+        counter.increment(10);
+        counter.increment(20);
+
+        byte[] bytes = TestWritableInterface.serialize(counter);
+        CounterWritable deserialized = TestWritableInterface.asWritable(bytes, CounterWritable.class);
+
+        assertSameStatistics(counter, deserialized);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testWireFormatIsCompatible() throws IOException {
+        final Counter counter = new Counter();
+        counter.increment(42);
+        counter.increment(43);
+
+        // The Writable form must be exactly the plain serialized form of a Counter (in both directions)
+        final byte[] bytes = TestWritableInterface.serialize(new CounterWritable(counter.toBytes()));
+        assertArrayEquals(counter.toBytes(), bytes);
+        assertArrayEquals(bytes, TestWritableInterface.asWritable(bytes, CounterWritable.class).toBytes());
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.hadoop;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import nl.basjes.utils.TestWritableInterface;
+
+import org.junit.Test;
+
+public class LongCounterWritableTest {
+
+    // ------------------------------------------
+
+    @Test
+    public void testLongCounterWritability() throws IOException {
+        final LongCounterWritable counter = new LongCounterWritable();
+        counter.increment(200);
+        counter.increment(404);
+        counter.increment(-3);
+
+        byte[] bytes = TestWritableInterface.serialize(counter);
+        LongCounterWritable deserialized = TestWritableInterface.asWritable(bytes, LongCounterWritable.class);
+        assertEquals(counter.toString(), deserialized.toString());
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,45 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.hadoop;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import nl.basjes.utils.TestWritableInterface;
+
+import org.junit.Test;
+
+public class MultiCounterWritableTest {
+
+    // ------------------------------------------
+
+    @Test
+    public void testMultiCounterWritability() throws IOException {
+        final MultiCounterWritable counter = new MultiCounterWritable(3);
+        counter.increment(0.25, 1500, 3);
+        counter.increment(0.75, 200, 1);
+
+        byte[] bytes = TestWritableInterface.serialize(counter);
+        assertEquals(1 + 8 + 3 * 32, bytes.length);
+        MultiCounterWritable deserialized = TestWritableInterface.asWritable(bytes, MultiCounterWritable.class);
+        assertEquals(counter.toString(), deserialized.toString());
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.hadoop;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+
+import nl.basjes.utils.TestWritableInterface;
+
+import org.junit.Test;
+
+public class ReservoirSampleWritableTest {
+
+    // ------------------------------------------
+
+    @Test
+    public void testReservoirSampleWritability() throws IOException {
+        final ReservoirSampleWritable sample = new ReservoirSampleWritable(20);
+        for (int i = 0; i < 100; i++) {
+            sample.add(i);
+        }
+
+        byte[] bytes = TestWritableInterface.serialize(sample);
+        ReservoirSampleWritable deserialized = TestWritableInterface.asWritable(bytes, ReservoirSampleWritable.class);
+        assertEquals(sample.toString(), deserialized.toString());
+        assertArrayEquals(sample.getValues(), deserialized.getValues(), 0);
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.kryo;
+
+import static nl.basjes.statistics.Counter.COUNTER_BYTES_SIZE;
+
+import nl.basjes.statistics.Counter;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * A Kryo serializer that writes a {@link Counter} in its fixed 40 byte form (see {@link Counter#toBytes()})
+ * instead of the much larger generic field by field form.
+ * 
+ * Spark: use the CounterKryoRegistrator from the statscounter-spark module (or register it in your own)
+ * <pre>
+ *   kryo.register(Counter.class, new CounterKryoSerializer());
+ * </pre>
+ * Flink: preferably use the CounterTypeInfo from the statscounter-flink module, else
+ * <pre>
+ *   env.getConfig().registerTypeWithKryoSerializer(Counter.class, CounterKryoSerializer.class);
+ * </pre>
+ * Note that subclasses (like {@link nl.basjes.statistics.Rating}) are NOT handled by this serializer.
+ */
+public class CounterKryoSerializer extends Serializer<Counter> {
+
+    // Kryo instances (and thus their serializers) are never shared between threads.
+    private final byte[] scratch = new byte[COUNTER_BYTES_SIZE];
+
+    // ------------------------------------------
+
+    public CounterKryoSerializer() {
+        setImmutable(false);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public void write(final Kryo kryo, final Output output, final Counter counter) {
+        counter.toBytes(scratch, 0);
+        output.writeBytes(scratch);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter read(final Kryo kryo, final Input input, final Class<Counter> type) {
+        input.readBytes(scratch);
+        return new Counter(scratch);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter copy(final Kryo kryo, final Counter original) {
+        return new Counter(original.toBytes());
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.kryo;
+
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import nl.basjes.statistics.Counter;
+
+import org.junit.Test;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+public class CounterKryoSerializerTest {
+
+    private Counter createCounter() {
+        final Counter counter = new Counter();
+        counter.increment(1);
+        counter.increment(2);
+        counter.increment(3);
+        counter.increment(0);
+        counter.increment(10);
+        counter.increment(20);
+        return counter;
+    }
+
+    // ------------------------------------------
+
+    private byte[] serialize(final Kryo kryo, final Counter counter) {
+        final Output output = new Output(1024);
+        kryo.writeObject(output, counter);
+        return output.toBytes();
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testRoundTrip() {
+        final Kryo kryo = new Kryo();
+        kryo.setReferences(false); // Else an additional byte with the reference information is written
+        kryo.register(Counter.class, new CounterKryoSerializer());
+
+        final Counter counter = createCounter();
+        final byte[] bytes = serialize(kryo, counter);
+        assertEquals(Counter.COUNTER_BYTES_SIZE, bytes.length);
+
+        final Counter deserialized = kryo.readObject(new Input(bytes), Counter.class);
+        assertSameStatistics(counter, deserialized);
+
+        final Counter copy = kryo.copy(counter);
+        assertNotSame(counter, copy);
+        assertSameStatistics(counter, copy);
+
+        // Empty counters must survive too
+        assertEquals(0, kryo.readObject(new Input(serialize(kryo, new Counter())), Counter.class).getN());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSmallerThanDefault() {
+        final Kryo defaultKryo = new Kryo();
+        defaultKryo.register(Counter.class);
+
+        final Kryo kryo = new Kryo();
+        kryo.register(Counter.class, new CounterKryoSerializer());
+
+        final Counter counter = createCounter();
+        final byte[] defaultBytes = serialize(defaultKryo, counter);
+        final byte[] bytes        = serialize(kryo,        counter);
+        System.out.println("Default Kryo: " + defaultBytes.length + " bytes, CounterKryoSerializer: " + bytes.length + " bytes");
+        assertTrue(bytes.length < defaultBytes.length);
+        assertSameStatistics(counter, defaultKryo.readObject(new Input(defaultBytes), Counter.class));
+    }
+
+    // ------------------------------------------
+
+    private static final int BENCHMARK_RECORDS = 200000;
+    private static final int BENCHMARK_ROUNDS  = 5;
+
+    private static Counter[] createCounters() {
+        final Random random = new Random(42);
+        final Counter[] counters = new Counter[1000];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new Counter();
+            for (int value = 0; value < 1 + i % 10; value++) {
+                counters[i].increment(random.nextGaussian() * 100);
+            }
+        }
+        return counters;
+    }
+
+    // ------------------------------------------
+
+    private static void report(final String name, final long bytes, final long writeNanos, final long readNanos) {
+        System.out.println(String.format("%-22s: %5.1f bytes/record, write %,12.0f records/s, read %,12.0f records/s",
+            name, bytes / (double) BENCHMARK_RECORDS,
+            BENCHMARK_RECORDS * 1e9 / writeNanos, BENCHMARK_RECORDS * 1e9 / readNanos));
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of bytes per record
+     */
+    private double benchmarkKryo(final String name, final Kryo kryo, final Counter[] counters) {
+        final Output output = new Output(BENCHMARK_RECORDS * 64);
+        long writeNanos = Long.MAX_VALUE;
+        long readNanos  = Long.MAX_VALUE;
+        Counter last = null;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            output.clear();
+            long start = System.nanoTime();
+            for (int record = 0; record < BENCHMARK_RECORDS; record++) {
+                kryo.writeObject(output, counters[record % counters.length]);
+            }
+            writeNanos = Math.min(writeNanos, System.nanoTime() - start);
+
+            final Input input = new Input(output.getBuffer(), 0, output.position());
+            start = System.nanoTime();
+            for (int record = 0; record < BENCHMARK_RECORDS; record++) {
+                last = kryo.readObject(input, Counter.class);
+            }
+            readNanos = Math.min(readNanos, System.nanoTime() - start);
+        }
+        assertSameStatistics(counters[(BENCHMARK_RECORDS - 1) % counters.length], last);
+        report(name, output.position(), writeNanos, readNanos);
+        return output.position() / (double) BENCHMARK_RECORDS;
+    }
+
+    // ------------------------------------------
+
+    private double benchmarkJava(final Counter[] counters) throws IOException, ClassNotFoundException {
+        long writeNanos = Long.MAX_VALUE;
+        long readNanos  = Long.MAX_VALUE;
+        byte[] bytes = null;
+        Counter last = null;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BENCHMARK_RECORDS * 64);
+            long start = System.nanoTime();
+            try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+                for (int record = 0; record < BENCHMARK_RECORDS; record++) {
+                    out.writeObject(counters[record % counters.length]);
+                    out.reset(); // Else repeated instances become back references
+                }
+            }
+            writeNanos = Math.min(writeNanos, System.nanoTime() - start);
+            bytes = buffer.toByteArray();
+
+            start = System.nanoTime();
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                for (int record = 0; record < BENCHMARK_RECORDS; record++) {
+                    last = (Counter) in.readObject();
+                }
+            }
+            readNanos = Math.min(readNanos, System.nanoTime() - start);
+        }
+        assertSameStatistics(counters[(BENCHMARK_RECORDS - 1) % counters.length], last);
+        report("Java serialization", bytes.length, writeNanos, readNanos);
+        return bytes.length / (double) BENCHMARK_RECORDS;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBenchmark() throws Exception {
+        final Counter[] counters = createCounters();
+
+        final Kryo kryo = new Kryo();
+        kryo.register(Counter.class, new CounterKryoSerializer());
+        final Kryo fieldKryo = new Kryo();
+        fieldKryo.register(Counter.class); // The default FieldSerializer
+
+        final double counterSize = benchmarkKryo("CounterKryoSerializer", kryo,      counters);
+        final double fieldSize   = benchmarkKryo("Kryo FieldSerializer",  fieldKryo, counters);
+        final double javaSize    = benchmarkJava(counters);
+        assertTrue(counterSize < fieldSize);
+        assertTrue(counterSize < javaSize);
+    }
+
+    // ------------------------------------------
+
+}
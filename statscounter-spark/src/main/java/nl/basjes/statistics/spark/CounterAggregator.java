@@ -0,0 +1,95 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.spark;
+
+import nl.basjes.statistics.Counter;
+
+import org.apache.spark.sql.Encoder;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.expressions.Aggregator;
+
+/**
+ * A Spark Aggregator that aggregates values into a {@link Counter} using its associative merge, i.e.
+ * <pre>
+ *   Dataset&lt;Double&gt; values = ...;
+ *   Counter counter = values.select(new CounterAggregator().toColumn()).first();
+ * </pre>
+ * The buffer and the result are stored as a binary column written by Kryo; with the {@link CounterKryoRegistrator}
+ * configured that is the 40 byte form of the Counter. Null values are ignored.
+ */
+public class CounterAggregator extends Aggregator<Double, Counter, Counter> {
+
+    private static final long serialVersionUID = 1L;
+
+    // ------------------------------------------
+
+    /**
+     * @return The Encoder used for the Counters (Kryo based, see {@link CounterKryoRegistrator}).
+     */
+    public static Encoder<Counter> encoder() {
+        return Encoders.kryo(Counter.class);
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter zero() {
+        return new Counter();
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter reduce(final Counter buffer, final Double value) {
+        if (value != null) {
+            buffer.increment(value);
+        }
+        return buffer;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter merge(final Counter buffer1, final Counter buffer2) {
+        buffer1.increment(buffer2);
+        return buffer1;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Counter finish(final Counter reduction) {
+        return reduction;
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Encoder<Counter> bufferEncoder() {
+        return encoder();
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public Encoder<Counter> outputEncoder() {
+        return encoder();
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.spark;
+
+import nl.basjes.statistics.Counter;
+import nl.basjes.statistics.kryo.CounterKryoSerializer;
+
+import org.apache.spark.serializer.KryoRegistrator;
+
+import com.esotericsoftware.kryo.Kryo;
+
+/**
+ * Registers the {@link CounterKryoSerializer} so Spark writes {@link Counter}s in their 40 byte form
+ * (both when shuffling and in the {@link CounterAggregator#encoder()}).
+ * <pre>
+ *   spark.serializer       org.apache.spark.serializer.KryoSerializer
+ *   spark.kryo.registrator nl.basjes.statistics.spark.CounterKryoRegistrator
+ * </pre>
+ */
+public class CounterKryoRegistrator implements KryoRegistrator {
+
+    @Override
+    public void registerClasses(final Kryo kryo) {
+        kryo.register(Counter.class, new CounterKryoSerializer());
+    }
+
+    // ------------------------------------------
+
+}
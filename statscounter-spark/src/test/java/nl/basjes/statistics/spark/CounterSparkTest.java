@@ -0,0 +1,197 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.spark;
+
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import nl.basjes.statistics.Counter;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.function.MapFunction;
+import org.apache.spark.serializer.DeserializationStream;
+import org.apache.spark.serializer.JavaSerializer;
+import org.apache.spark.serializer.KryoSerializer;
+import org.apache.spark.serializer.SerializationStream;
+import org.apache.spark.serializer.Serializer;
+import org.apache.spark.serializer.SerializerInstance;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.SparkSession;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import scala.Tuple2;
+import scala.reflect.ClassTag;
+import scala.reflect.ClassTag$;
+
+public class CounterSparkTest {
+
+    private static final ClassTag<Counter> COUNTER_TAG = ClassTag$.MODULE$.apply(Counter.class);
+
+    private static SparkSession spark;
+
+    // ------------------------------------------
+
+    private static SparkConf createConf(final boolean withRegistrator) {
+        final SparkConf conf = new SparkConf()
+            .setMaster("local[2]")
+            .setAppName("CounterSparkTest")
+            .set("spark.ui.enabled", "false")
+            .set("spark.sql.shuffle.partitions", "4")
+            .set("spark.serializer", KryoSerializer.class.getName());
+        if (withRegistrator) {
+            conf.set("spark.kryo.registrator", CounterKryoRegistrator.class.getName());
+        }
+        return conf;
+    }
+
+    // ------------------------------------------
+
+    @BeforeClass
+    public static void startSpark() {
+        spark = SparkSession.builder().config(createConf(true)).getOrCreate();
+    }
+
+    // ------------------------------------------
+
+    @AfterClass
+    public static void stopSpark() {
+        spark.stop();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * A static class because an anonymous one would drag the (not serializable) test along.
+     */
+    private static final class Modulo implements MapFunction<Double, Integer> {
+        private static final long serialVersionUID = 1L;
+        private final int modulo;
+
+        Modulo(final int modulo) {
+            this.modulo = modulo;
+        }
+
+        @Override
+        public Integer call(final Double value) {
+            return value.intValue() % modulo;
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testAggregate() {
+        final int keys = 5;
+        final List<Double> values = new ArrayList<>();
+        final Counter all = new Counter();
+        final Counter[] perKey = new Counter[keys];
+        for (int key = 0; key < keys; key++) {
+            perKey[key] = new Counter();
+        }
+        for (int i = 0; i < 10000; i++) {
+            values.add((double) i);
+            all.increment(i);
+            perKey[i % keys].increment(i);
+        }
+        final Dataset<Double> dataset = spark.createDataset(values, Encoders.DOUBLE()).repartition(8);
+
+        assertSameStatistics(all, dataset.select(new CounterAggregator().toColumn()).first());
+
+        final List<Tuple2<Integer, Counter>> grouped = dataset
+            .groupByKey(new Modulo(keys), Encoders.INT())
+            .agg(new CounterAggregator().toColumn())
+            .collectAsList();
+        assertEquals(keys, grouped.size());
+        for (Tuple2<Integer, Counter> entry : grouped) {
+            assertSameStatistics(perKey[entry._1()], entry._2());
+        }
+    }
+
+    // ------------------------------------------
+
+    private static final int BENCHMARK_RECORDS = 200000;
+    private static final int BENCHMARK_ROUNDS  = 5;
+
+    /**
+     * Serialize the counters as a stream like Spark does when shuffling.
+     * @return The number of bytes per record
+     */
+    private double benchmark(final String name, final Serializer serializer, final Counter[] counters) {
+        final SerializerInstance instance = serializer.newInstance();
+        long writeNanos = Long.MAX_VALUE;
+        long readNanos  = Long.MAX_VALUE;
+        byte[] bytes = null;
+        Counter last = null;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BENCHMARK_RECORDS * 64);
+            long start = System.nanoTime();
+            final SerializationStream out = instance.serializeStream(buffer);
+            for (int record = 0; record < BENCHMARK_RECORDS; record++) {
+                out.writeObject(counters[record % counters.length], COUNTER_TAG);
+            }
+            out.close();
+            writeNanos = Math.min(writeNanos, System.nanoTime() - start);
+            bytes = buffer.toByteArray();
+
+            start = System.nanoTime();
+            final DeserializationStream in = instance.deserializeStream(new ByteArrayInputStream(bytes));
+            for (int record = 0; record < BENCHMARK_RECORDS; record++) {
+                last = in.readObject(COUNTER_TAG);
+            }
+            in.close();
+            readNanos = Math.min(readNanos, System.nanoTime() - start);
+        }
+        assertSameStatistics(counters[(BENCHMARK_RECORDS - 1) % counters.length], last);
+        System.out.println(String.format("Spark %-24s: %5.1f bytes/record, write %,12.0f records/s, read %,12.0f records/s",
+            name, bytes.length / (double) BENCHMARK_RECORDS,
+            BENCHMARK_RECORDS * 1e9 / writeNanos, BENCHMARK_RECORDS * 1e9 / readNanos));
+        return bytes.length / (double) BENCHMARK_RECORDS;
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBenchmark() {
+        final Random random = new Random(42);
+        final Counter[] counters = new Counter[1000];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new Counter();
+            for (int value = 0; value < 1 + i % 10; value++) {
+                counters[i].increment(random.nextGaussian() * 100);
+            }
+        }
+
+        final double registeredSize = benchmark("Kryo + registrator", new KryoSerializer(createConf(true)),  counters);
+        final double kryoSize       = benchmark("Kryo (default)",     new KryoSerializer(createConf(false)), counters);
+        final double javaSize       = benchmark("Java serialization", new JavaSerializer(createConf(false)), counters);
+        assertTrue(registeredSize < kryoSize);
+        assertTrue(registeredSize < javaSize);
+    }
+
+    // ------------------------------------------
+
+}
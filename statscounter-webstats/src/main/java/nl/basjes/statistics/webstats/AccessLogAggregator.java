@@ -0,0 +1,267 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.webstats;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Aggregates a (large) access log file into {@link PathStatistics} per path.
+ * 
+ * The file is memory mapped in chunks that are split on line boundaries. Each chunk is parsed by one of the
+ * worker threads with a {@link CombinedLogParser} into its own hash map keyed directly by the bytes of the path,
+ * so the hot loop does not allocate anything except for new paths. At the end the maps are merged.
+ * Lines without a response time are only left out of the response time statistics.
+ * Paths longer than {@link #MAX_PATH_LENGTH} bytes are truncated (on a UTF-8 character boundary) and as a
+ * consequence all long paths with the same start are aggregated together; {@link #getTruncatedPaths()}
+ * tells how often this happened.
+ */
+public class AccessLogAggregator {
+
+    /** Longer paths are truncated to this many bytes. */
+    public static final int MAX_PATH_LENGTH    = 2048;
+
+    /** A single mapping must stay below 2GB. */
+    static final long       MAX_CHUNK_SIZE     = 1L << 30;
+
+    private static final int SCAN_BUFFER_SIZE  = 4096;
+
+    private final int        workers;
+    private final AtomicLong lines          = new AtomicLong();
+    private final AtomicLong badLines       = new AtomicLong();
+    private final AtomicLong truncatedPaths = new AtomicLong();
+    private final AtomicLong bytesRead      = new AtomicLong();
+
+    // ------------------------------------------
+
+    /**
+     * @param workers The number of threads that parse the file
+     */
+    public AccessLogAggregator(final int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("There must be at least 1 worker (was " + workers + ")");
+        }
+        this.workers = workers;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The statistics per path, sorted by path.
+     */
+    public Map<String, PathStatistics> aggregate(final File file) throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            final FileChannel channel = input.getChannel();
+            final long size = channel.size();
+
+            final int chunks = (int) Math.max(workers, (size + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+            final long[] starts = new long[chunks + 1];
+            starts[chunks] = size;
+            for (int chunk = 1; chunk < chunks; chunk++) {
+                starts[chunk] = findLineStart(channel, Math.max(size * chunk / chunks, starts[chunk - 1]), size);
+            }
+
+            final List<Future<ByteKeyMap>> futures = new ArrayList<Future<ByteKeyMap>>(chunks);
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                final long start = starts[chunk];
+                final long end   = starts[chunk + 1];
+                if (start == end) {
+                    continue;
+                }
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                futures.add(executor.submit(new Callable<ByteKeyMap>() {
+                    @Override
+                    public ByteKeyMap call() {
+                        return aggregate(buffer);
+                    }
+                }));
+            }
+
+            final Map<String, PathStatistics> result = new TreeMap<String, PathStatistics>();
+            for (Future<ByteKeyMap> future : futures) {
+                final ByteKeyMap counters = getResult(future);
+                for (int entry = 0; entry < counters.size(); entry++) {
+                    final String key = counters.getKey(entry);
+                    final PathStatistics existing = result.get(key);
+                    if (existing == null) {
+                        result.put(key, counters.getCounter(entry));
+                    } else {
+                        existing.increment(counters.getCounter(entry));
+                    }
+                }
+            }
+            bytesRead.addAndGet(size);
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // ------------------------------------------
+
+    private static ByteKeyMap getResult(final Future<ByteKeyMap> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while aggregating", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Aggregating a part of the file failed", e.getCause());
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The position of the first line that starts at or after the position.
+     */
+    static long findLineStart(final FileChannel channel, final long position, final long size) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long offset = position - 1; // If the previous byte is a line end the line starts exactly at position
+        while (offset < size) {
+            buffer.clear();
+            final int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+
+    // ------------------------------------------
+
+    private ByteKeyMap aggregate(final ByteBuffer buffer) {
+        final ByteKeyMap        counters = new ByteKeyMap();
+        final CombinedLogParser parser   = new CombinedLogParser();
+        final byte[]            path     = new byte[MAX_PATH_LENGTH];
+        final int               limit    = buffer.limit();
+        long chunkLines          = 0;
+        long chunkBadLines       = 0;
+        long chunkTruncatedPaths = 0;
+
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            final int contentEnd = lineEnd > lineStart && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+
+            if (contentEnd > lineStart) {
+                chunkLines++;
+                if (parser.parse(buffer, lineStart, contentEnd)) {
+                    final int pathStart = parser.getPathStart();
+                    int length = parser.getPathEnd() - pathStart;
+                    if (length > MAX_PATH_LENGTH) {
+                        length = utf8Boundary(buffer, pathStart, MAX_PATH_LENGTH);
+                        chunkTruncatedPaths++;
+                    }
+                    for (int i = 0; i < length; i++) {
+                        path[i] = buffer.get(pathStart + i);
+                    }
+                    counters.get(path, length, ByteKeyMap.hash(path, length))
+                        .increment(parser.getStatus(), parser.getBytes(), parser.getResponseTime());
+                } else {
+                    chunkBadLines++;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        lines.addAndGet(chunkLines);
+        badLines.addAndGet(chunkBadLines);
+        truncatedPaths.addAndGet(chunkTruncatedPaths);
+        return counters;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The largest length of at most maxLength that does not cut a UTF-8 sequence that starts at start.
+     */
+    static int utf8Boundary(final ByteBuffer buffer, final int start, final int maxLength) {
+        int length = maxLength;
+        // Step back over the continuation bytes (10xxxxxx) of a sequence that does not fit (at most 3)
+        while (length > 0 && maxLength - length < 3 && (buffer.get(start + length) & 0xC0) == 0x80) {
+            length--;
+        }
+        return length;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of (non empty) lines seen in all aggregated files
+     */
+    public long getLines() {
+        return lines.get();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of lines that could not be parsed
+     */
+    public long getBadLines() {
+        return badLines.get();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of paths that were longer than {@link #MAX_PATH_LENGTH} and have been truncated
+     */
+    public long getTruncatedPaths() {
+        return truncatedPaths.get();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of bytes of all aggregated files
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    // ------------------------------------------
+
+}
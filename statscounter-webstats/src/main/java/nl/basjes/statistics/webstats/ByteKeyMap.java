@@ -0,0 +1,162 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.webstats;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * An open addressing hash map from byte sequence keys to {@link PathStatistics}.
+ * The keys are copied into a single growing byte array so looking up an existing key does not allocate anything.
+ */
+final class ByteKeyMap {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private int[]            slots;        // Index + 1 of the entry (0 = empty)
+    private int[]            hashes;       // Per entry
+    private int[]            keyOffsets;   // Per entry: where the key starts in keyBytes
+    private int[]            keyLengths;   // Per entry
+    private PathStatistics[] counters;     // Per entry
+    private byte[]           keyBytes;
+    private int              keyBytesUsed;
+    private int              size;
+
+    // ------------------------------------------
+
+    ByteKeyMap() {
+        slots        = new int[1024];
+        hashes       = new int[512];
+        keyOffsets   = new int[512];
+        keyLengths   = new int[512];
+        counters     = new PathStatistics[512];
+        keyBytes     = new byte[16 * 1024];
+        keyBytesUsed = 0;
+        size         = 0;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * FNV-1a hash of key[0, length).
+     */
+    static int hash(final byte[] key, final int length) {
+        int hash = 0x811C9DC5;
+        for (int i = 0; i < length; i++) {
+            hash ^= key[i];
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Get the statistics of the key in key[0, length), a new one is created if the key is not present yet.
+     */
+    PathStatistics get(final byte[] key, final int length, final int hash) {
+        final int mask = slots.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (true) {
+            final int entry = slots[slot] - 1;
+            if (entry < 0) {
+                return insert(slot, key, length, hash);
+            }
+            if (hashes[entry] == hash && keyLengths[entry] == length && equalKey(entry, key, length)) {
+                return counters[entry];
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    // ------------------------------------------
+
+    private boolean equalKey(final int entry, final byte[] key, final int length) {
+        final int offset = keyOffsets[entry];
+        for (int i = 0; i < length; i++) {
+            if (keyBytes[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // ------------------------------------------
+
+    private PathStatistics insert(final int slot, final byte[] key, final int length, final int hash) {
+        if (size == counters.length) {
+            final int capacity = counters.length * 2;
+            hashes     = Arrays.copyOf(hashes,     capacity);
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            counters   = Arrays.copyOf(counters,   capacity);
+        }
+        if (keyBytesUsed + length > keyBytes.length) {
+            keyBytes = Arrays.copyOf(keyBytes, Math.max(keyBytes.length * 2, keyBytesUsed + length));
+        }
+        System.arraycopy(key, 0, keyBytes, keyBytesUsed, length);
+
+        final int entry = size++;
+        hashes[entry]     = hash;
+        keyOffsets[entry] = keyBytesUsed;
+        keyLengths[entry] = length;
+        counters[entry]   = new PathStatistics();
+        keyBytesUsed     += length;
+        slots[slot]       = entry + 1;
+
+        // Keep the load factor at most 0.5
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return counters[entry];
+    }
+
+    // ------------------------------------------
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        final int mask = slots.length - 1;
+        for (int entry = 0; entry < size; entry++) {
+            int slot = (hashes[entry] ^ (hashes[entry] >>> 16)) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    // ------------------------------------------
+
+    int size() {
+        return size;
+    }
+
+    // ------------------------------------------
+
+    String getKey(final int entry) {
+        return new String(keyBytes, keyOffsets[entry], keyLengths[entry], UTF8);
+    }
+
+    // ------------------------------------------
+
+    PathStatistics getCounter(final int entry) {
+        return counters[entry];
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.webstats;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A byte level parser for access log lines in the (Apache/Nginx) combined log format with an optional
+ * response time (i.e. Apache %D in microseconds) appended at the end:
+ * <pre>
+ * host ident user [time] "METHOD /path?query PROTOCOL" status bytes "referer" "user-agent" [responseTime]
+ * </pre>
+ * It reads directly from a (memory mapped) buffer using absolute positions and does not allocate anything:
+ * after a successful {@link #parse(ByteBuffer, int, int)} the fields are available via the getters,
+ * the path is given as a range in the buffer (without the query string).
+ * An instance is reused for every line and is not thread safe.
+ */
+public class CombinedLogParser {
+
+    public static final long NO_RESPONSE_TIME = -1;
+
+    // Any number of at most 18 digits fits in a long, longer numbers are rejected instead of wrapping around.
+    private static final int MAX_NUMBER_DIGITS = 18;
+
+    private int  pathStart;
+    private int  pathEnd;
+    private int  status;
+    private long bytes;
+    private long responseTime;
+
+    // ------------------------------------------
+
+    /**
+     * Parse the line in buffer[start, end) (without the line end).
+     * @return false if the line is not in the expected format
+     */
+    public boolean parse(final ByteBuffer buffer, final int start, final int end) {
+        // The request is the first quoted field
+        int position = indexOf(buffer, start, end, (byte) '"');
+        if (position < 0) {
+            return false;
+        }
+        final int requestStart = position + 1;
+        final int requestEnd   = indexOfQuoteEnd(buffer, requestStart, end);
+        if (requestEnd < 0) {
+            return false;
+        }
+
+        // "METHOD /path PROTOCOL": the path is what is after the first space up to '?' or the next space
+        final int methodEnd = indexOf(buffer, requestStart, requestEnd, (byte) ' ');
+        if (methodEnd < 0) {
+            return false;
+        }
+        pathStart = methodEnd + 1;
+        pathEnd   = pathStart;
+        while (pathEnd < requestEnd) {
+            final byte b = buffer.get(pathEnd);
+            if (b == ' ' || b == '?') {
+                break;
+            }
+            pathEnd++;
+        }
+        if (pathEnd == pathStart) {
+            return false;
+        }
+
+        // The status code
+        position = requestEnd + 1;
+        if (position >= end || buffer.get(position) != ' ') {
+            return false;
+        }
+        position++;
+        final int statusStart = position;
+        int value = 0;
+        while (position < end) {
+            final int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        if (position - statusStart != 3 || position >= end || buffer.get(position) != ' ') {
+            return false;
+        }
+        status = value;
+        position++;
+
+        // The response size ('-' means nothing was sent)
+        if (position < end && buffer.get(position) == '-') {
+            bytes = 0;
+            position++;
+        } else {
+            final int bytesStart = position;
+            long size = 0;
+            while (position < end) {
+                final int digit = buffer.get(position) - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                size = size * 10 + digit;
+                position++;
+            }
+            if (position == bytesStart || position - bytesStart > MAX_NUMBER_DIGITS) {
+                return false;
+            }
+            bytes = size;
+        }
+
+        // Skip the (optional) quoted referer and user agent, what remains may be the response time
+        responseTime = NO_RESPONSE_TIME;
+        for (int field = 0; field < 2; field++) {
+            if (position + 1 >= end || buffer.get(position) != ' ' || buffer.get(position + 1) != '"') {
+                break; // Common log format or a partial combined log line
+            }
+            final int fieldEnd = indexOfQuoteEnd(buffer, position + 2, end);
+            if (fieldEnd < 0) {
+                return false;
+            }
+            position = fieldEnd + 1;
+        }
+
+        while (position < end && buffer.get(position) == ' ') {
+            position++;
+        }
+        if (position == end) {
+            return true;
+        }
+        long time = 0;
+        final int timeStart = position;
+        while (position < end) {
+            final int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            time = time * 10 + digit;
+            position++;
+        }
+        if (position - timeStart > MAX_NUMBER_DIGITS) {
+            return false;
+        }
+        if (position > timeStart && (position == end || buffer.get(position) == ' ')) {
+            responseTime = time;
+        }
+        return true;
+    }
+
+    // ------------------------------------------
+
+    private static int indexOf(final ByteBuffer buffer, final int start, final int end, final byte value) {
+        for (int position = start; position < end; position++) {
+            if (buffer.get(position) == value) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The position of the closing '"' of a quoted field (skipping \" escapes), -1 if there is none
+     */
+    private static int indexOfQuoteEnd(final ByteBuffer buffer, final int start, final int end) {
+        for (int position = start; position < end; position++) {
+            final byte b = buffer.get(position);
+            if (b == '\\') {
+                position++;
+            } else if (b == '"') {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return Where the path starts in the buffer
+     */
+    public int getPathStart() {
+        return pathStart;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return Where the path ends in the buffer (exclusive, the query string is not part of the path)
+     */
+    public int getPathEnd() {
+        return pathEnd;
+    }
+
+    // ------------------------------------------
+
+    public int getStatus() {
+        return status;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The size of the response in bytes (0 if it was logged as '-')
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The response time as logged or {@link #NO_RESPONSE_TIME} if it was not in the line
+     */
+    public long getResponseTime() {
+        return responseTime;
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.webstats;
+
+import nl.basjes.statistics.Counter;
+
+/**
+ * The statistics of all requests of a single path:
+ * the response size of all requests, the response time of only the requests that logged one
+ * and the number of requests per status class (1xx to 5xx).
+ */
+public class PathStatistics {
+
+    /** The status class of the status codes outside 100-599. */
+    public static final int OTHER_STATUS   = 0;
+    private static final int STATUS_CLASSES = 6;
+
+    private final Counter bytes        = new Counter();
+    private final Counter responseTime = new Counter();
+    private final long[]  statusCounts = new long[STATUS_CLASSES];
+
+    // ------------------------------------------
+
+    /**
+     * Add a single request.
+     * @param status       The HTTP status code
+     * @param bytesSent    The size of the response
+     * @param responseTime The response time or {@link CombinedLogParser#NO_RESPONSE_TIME} if it was not logged
+     */
+    public void increment(final int status, final long bytesSent, final long responseTime) {
+        statusCounts[statusClass(status)]++;
+        bytes.increment(bytesSent);
+        if (responseTime != CombinedLogParser.NO_RESPONSE_TIME) {
+            this.responseTime.increment(responseTime);
+        }
+    }
+
+    // ------------------------------------------
+
+    /**
+     * Creates the combined statistics by merging the specified statistics into these.
+     */
+    public void increment(final PathStatistics other) {
+        for (int statusClass = 0; statusClass < STATUS_CLASSES; statusClass++) {
+            statusCounts[statusClass] += other.statusCounts[statusClass];
+        }
+        bytes.increment(other.bytes);
+        responseTime.increment(other.responseTime);
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The status class (1 for 1xx up to 5 for 5xx) or {@link #OTHER_STATUS}
+     */
+    public static int statusClass(final int status) {
+        if (status < 100 || status >= 600) {
+            return OTHER_STATUS;
+        }
+        return status / 100;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of requests
+     */
+    public long getN() {
+        return bytes.getN();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The response sizes of all requests
+     */
+    public Counter getBytes() {
+        return bytes;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The response times of only the requests that logged a response time
+     */
+    public Counter getResponseTime() {
+        return responseTime;
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @return The number of requests that did not log a response time
+     */
+    public long getWithoutResponseTime() {
+        return bytes.getN() - responseTime.getN();
+    }
+
+    // ------------------------------------------
+
+    /**
+     * @param statusClass 1 for 1xx up to 5 for 5xx or {@link #OTHER_STATUS}
+     * @return The number of requests with a status in that class
+     */
+    public long getStatusCount(final int statusClass) {
+        return statusCounts[statusClass];
+    }
+
+    // ------------------------------------------
+
+    @Override
+    public String toString() {
+        return "{"
+            + "\"n\":"             + getN()
+            + ",\"bytes\":"        + bytes
+            + ",\"responseTime\":" + responseTime
+            + ",\"1xx\":"          + statusCounts[1]
+            + ",\"2xx\":"          + statusCounts[2]
+            + ",\"3xx\":"          + statusCounts[3]
+            + ",\"4xx\":"          + statusCounts[4]
+            + ",\"5xx\":"          + statusCounts[5]
+            + ",\"other\":"        + statusCounts[OTHER_STATUS]
+            + "}";
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,209 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.webstats;
+
+import static nl.basjes.utils.TestCounters.assertSameStatistics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AccessLogAggregatorTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The kind of regex based parser this replaces. */
+    private static final Pattern COMBINED = Pattern.compile(
+        "^\\S+ \\S+ \\S+ \\[[^\\]]+\\] \"\\S+ ([^ ?\"]+)[^\"]*\" (\\d{3}) (\\d+|-)(?: \"(?:[^\"\\\\]|\\\\.)*\" \"(?:[^\"\\\\]|\\\\.)*\")?(?: (\\d+))?$");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // ------------------------------------------
+
+    private File createLog(final int lines) throws IOException {
+        final File file = folder.newFile("access.log");
+        final Random random = new Random(42);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8))) {
+            for (int line = 0; line < lines; line++) {
+                final int page = (int) Math.abs(random.nextGaussian() * 200);
+                out.write("192.168." + random.nextInt(256) + "." + random.nextInt(256) +
+                          " - - [18/Oct/2026:10:" + (line % 60) + ":00 +0200] \"GET /page/" + page + ".html" +
+                          (line % 3 == 0 ? "?session=" + line : "") + " HTTP/1.1\" " +
+                          (line % 50 == 0 ? 404 : line % 77 == 0 ? 503 : 200) + " " + (line % 97 == 0 ? "-" : random.nextInt(50000)) +
+                          " \"https://www.example.com/\" \"Mozilla/5.0 (X11; Linux x86_64) Test/" + line % 7 + "\"" +
+                          (line % 11 == 0 ? "" : " " + random.nextInt(200000)));
+                out.write(line % 13 == 0 ? "\r\n" : "\n");
+                if (line % 10007 == 0) {
+                    out.write("this line is broken\n");
+                }
+            }
+        }
+        return file;
+    }
+
+    // ------------------------------------------
+
+    private Map<String, PathStatistics> referenceAggregate(final File file) throws IOException {
+        final Map<String, PathStatistics> result = new HashMap<String, PathStatistics>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final Matcher matcher = COMBINED.matcher(line);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                PathStatistics statistics = result.get(matcher.group(1));
+                if (statistics == null) {
+                    statistics = new PathStatistics();
+                    result.put(matcher.group(1), statistics);
+                }
+                final long bytes = "-".equals(matcher.group(3)) ? 0 : Long.parseLong(matcher.group(3));
+                final long time  = matcher.group(4) == null ? CombinedLogParser.NO_RESPONSE_TIME : Long.parseLong(matcher.group(4));
+                statistics.increment(Integer.parseInt(matcher.group(2)), bytes, time);
+            }
+        }
+        return result;
+    }
+
+    // ------------------------------------------
+
+    private void assertSamePaths(final Map<String, PathStatistics> expected, final Map<String, PathStatistics> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, PathStatistics> entry : expected.entrySet()) {
+            final PathStatistics wanted = entry.getValue();
+            final PathStatistics got    = actual.get(entry.getKey());
+            assertEquals(wanted.getN(), got.getN());
+            assertEquals(wanted.getWithoutResponseTime(), got.getWithoutResponseTime());
+            assertSameStatistics(wanted.getBytes(), got.getBytes());
+            assertSameStatistics(wanted.getResponseTime(), got.getResponseTime());
+            for (int statusClass = PathStatistics.OTHER_STATUS; statusClass <= 5; statusClass++) {
+                assertEquals(wanted.getStatusCount(statusClass), got.getStatusCount(statusClass));
+            }
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSameAsReference() throws IOException {
+        final File file = createLog(50000);
+        final Map<String, PathStatistics> expected = referenceAggregate(file);
+        for (int workers : new int[]{1, 3, 8}) {
+            final AccessLogAggregator aggregator = new AccessLogAggregator(workers);
+            assertSamePaths(expected, aggregator.aggregate(file));
+            assertEquals(50000 + 5, aggregator.getLines());
+            assertEquals(5, aggregator.getBadLines());
+            assertEquals(0, aggregator.getTruncatedPaths());
+            assertEquals(file.length(), aggregator.getBytesRead());
+        }
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testLongPaths() throws IOException {
+        // 2047 ASCII bytes followed by 2 byte characters: the limit falls inside the first of those
+        final StringBuilder prefix = new StringBuilder("/");
+        while (prefix.length() < AccessLogAggregator.MAX_PATH_LENGTH - 1) {
+            prefix.append('a');
+        }
+        final File file = folder.newFile("long.log");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF8)) {
+            out.write("1.2.3.4 - - [18/Oct/2026:10:00:00 +0200] \"GET " + prefix + "\u00e9\u00e9 HTTP/1.1\" 200 10\n");
+            out.write("1.2.3.4 - - [18/Oct/2026:10:00:00 +0200] \"GET " + prefix + "\u00e9x HTTP/1.1\" 500 20\n");
+            out.write("1.2.3.4 - - [18/Oct/2026:10:00:00 +0200] \"GET /short HTTP/1.1\" 200 30 5\n");
+        }
+
+        final AccessLogAggregator aggregator = new AccessLogAggregator(1);
+        final Map<String, PathStatistics> result = aggregator.aggregate(file);
+        assertEquals(2, aggregator.getTruncatedPaths());
+        assertEquals(2, result.size());
+
+        final Iterator<Map.Entry<String, PathStatistics>> entries = result.entrySet().iterator();
+        final Map.Entry<String, PathStatistics> truncated = entries.next();
+        // Cut before the 2 byte character instead of in the middle of it
+        assertEquals(prefix.toString(), truncated.getKey());
+        assertFalse(truncated.getKey().contains("\ufffd"));
+        assertEquals(2, truncated.getValue().getN());
+        assertEquals(1, truncated.getValue().getStatusCount(2));
+        assertEquals(1, truncated.getValue().getStatusCount(5));
+        assertEquals(2, truncated.getValue().getWithoutResponseTime());
+        assertEquals(0, truncated.getValue().getResponseTime().getN());
+
+        final PathStatistics small = entries.next().getValue();
+        assertEquals(0, small.getWithoutResponseTime());
+        assertEquals(5, small.getResponseTime().getSum(), 0);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        final AccessLogAggregator aggregator = new AccessLogAggregator(4);
+        assertEquals(0, aggregator.aggregate(folder.newFile("empty.log")).size());
+        assertEquals(0, aggregator.getLines());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testSpeed() throws IOException {
+        final File file = createLog(300000);
+        final int workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+        long start = System.nanoTime();
+        referenceAggregate(file);
+        final long referenceNanos = System.nanoTime() - start;
+
+        for (int threads : workers == 1 ? new int[]{1} : new int[]{1, workers}) {
+            final AccessLogAggregator aggregator = new AccessLogAggregator(threads);
+            long best = Long.MAX_VALUE;
+            for (int round = 0; round < 3; round++) {
+                start = System.nanoTime();
+                aggregator.aggregate(file);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            final double gbPerSecond = file.length() / (double) best;
+            System.out.println(String.format(
+                "Access log aggregation of %,d MB with %d workers: %.2f GB/s (%.2f GB/s per core), regex reference %.2f GB/s",
+                file.length() >> 20, threads, gbPerSecond, gbPerSecond / threads, file.length() / (double) referenceNanos));
+        }
+    }
+
+    // ------------------------------------------
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013 Niels Basjes
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package nl.basjes.statistics.webstats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+public class CombinedLogParserTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final CombinedLogParser parser = new CombinedLogParser();
+    private ByteBuffer buffer;
+
+    // ------------------------------------------
+
+    private boolean parse(final String line) {
+        // Put the line somewhere in the middle of a buffer to check the absolute positions
+        final byte[] bytes = ("garbage\n" + line + "\nmore").getBytes(UTF8);
+        buffer = ByteBuffer.wrap(bytes);
+        final int start = "garbage\n".length();
+        return parser.parse(buffer, start, start + line.getBytes(UTF8).length);
+    }
+
+    // ------------------------------------------
+
+    private String path() {
+        final byte[] path = new byte[parser.getPathEnd() - parser.getPathStart()];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = buffer.get(parser.getPathStart() + i);
+        }
+        return new String(path, UTF8);
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testCombinedWithResponseTime() {
+        assertTrue(parse("127.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"GET /apache_pb.gif?x=1 HTTP/1.0\" " +
+                         "200 2326 \"http://www.example.com/start.html\" \"Mozilla/4.08 [en] (Win98; I ;Nav)\" 1234"));
+        assertEquals("/apache_pb.gif", path());
+        assertEquals(200,  parser.getStatus());
+        assertEquals(2326, parser.getBytes());
+        assertEquals(1234, parser.getResponseTime());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testCombinedWithoutResponseTime() {
+        assertTrue(parse("::1 - - [10/Oct/2000:13:55:36 -0700] \"POST /login HTTP/1.1\" 302 - " +
+                         "\"-\" \"Agent with \\\"quotes\\\"\""));
+        assertEquals("/login", path());
+        assertEquals(302, parser.getStatus());
+        assertEquals(0,   parser.getBytes());
+        assertEquals(CombinedLogParser.NO_RESPONSE_TIME, parser.getResponseTime());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testCommonLogFormat() {
+        assertTrue(parse("10.0.0.1 - - [10/Oct/2000:13:55:36 -0700] \"GET /index.html HTTP/1.0\" 404 512"));
+        assertEquals("/index.html", path());
+        assertEquals(404, parser.getStatus());
+        assertEquals(512, parser.getBytes());
+        assertEquals(CombinedLogParser.NO_RESPONSE_TIME, parser.getResponseTime());
+    }
+
+    // ------------------------------------------
+
+    @Test
+    public void testBadLines() {
+        assertFalse(parse(""));
+        assertFalse(parse("no quotes at all"));
+        assertFalse(parse("host - - [date] \"GET /unterminated"));
+        assertFalse(parse("host - - [date] \"GET /x HTTP/1.0\" 20 100"));
+        assertFalse(parse("host - - [date] \"GET /x HTTP/1.0\" 200 abc"));
+        assertFalse(parse("host - - [date] \"GET\" 200 100"));
+
+        // Numbers that do not fit in a long are rejected instead of wrapping around
+        assertFalse(parse("host - - [date] \"GET /x HTTP/1.0\" 200 99999999999999999999"));
+        assertFalse(parse("host - - [date] \"GET /x HTTP/1.0\" 200 100 \"-\" \"-\" 99999999999999999999"));
+        assertTrue(parse("host - - [date] \"GET /x HTTP/1.0\" 200 999999999999999999 \"-\" \"-\" 999999999999999999"));
+        assertEquals(999999999999999999L, parser.getBytes());
+        assertEquals(999999999999999999L, parser.getResponseTime());
+    }
+
+    // ------------------------------------------
+
+}